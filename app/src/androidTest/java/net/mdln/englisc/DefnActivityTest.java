@@ -0,0 +1,21 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class DefnActivityTest {
+
+    @Test
+    public void linkedNids() {
+        String html = "<a href=\"https://btc.invalid/7\">a</a> <a href=\"https://example.com/8\">b</a> "
+                + "<a href=\"https://btc.invalid/10\">c</a> <a href=\"https://btc.invalid/7\">a</a> "
+                + "<a href=\"https://btc.invalid/about\">d</a> <a href=\"https://btc.invalid/12\">e</a>";
+        assertEquals(Arrays.asList(7, 10, 12), DefnActivity.linkedNids(html, 10));
+        assertEquals(Arrays.asList(7, 10), DefnActivity.linkedNids(html, 2));
+        assertEquals(Collections.emptyList(), DefnActivity.linkedNids("no links", 10));
+    }
+}
@@ -0,0 +1,38 @@
+package net.mdln.englisc;
+
+import android.app.Activity;
+
+import androidx.test.espresso.IdlingResource;
+import androidx.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import androidx.test.runner.lifecycle.Stage;
+
+/**
+ * Makes Espresso wait until every resumed {@link DefnActivity} has loaded its term, since that
+ * happens in the background.
+ */
+public class DefnLoadedIdlingResource implements IdlingResource {
+    private ResourceCallback callback;
+
+    @Override
+    public String getName() {
+        return DefnLoadedIdlingResource.class.getName();
+    }
+
+    @Override
+    public boolean isIdleNow() {
+        for (Activity a : ActivityLifecycleMonitorRegistry.getInstance().getActivitiesInStage(Stage.RESUMED)) {
+            if (a instanceof DefnActivity && !((DefnActivity) a).isLoaded()) {
+                return false;
+            }
+        }
+        if (callback != null) {
+            callback.onTransitionToIdle();
+        }
+        return true;
+    }
+
+    @Override
+    public void registerIdleTransitionCallback(ResourceCallback callback) {
+        this.callback = callback;
+    }
+}
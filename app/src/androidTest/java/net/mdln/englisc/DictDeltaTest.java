@@ -0,0 +1,82 @@
+package net.mdln.englisc;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Applies the patch in db/testdata, which db/test_make_delta.py also checks.
+ */
+public class DictDeltaTest {
+    private static final byte[] OLD_REV = "OLD".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEW_REV = "NEW".getBytes(StandardCharsets.UTF_8);
+
+    private byte[] oldDb;
+    private byte[] newDb;
+    private byte[] patch;
+    private File db;
+
+    private static byte[] readAsset(Context ctx, String name) throws IOException {
+        try (InputStream in = ctx.getAssets().open(name)) {
+            return Streams.toByteArray(in);
+        }
+    }
+
+    private static void write(File f, byte[] data) throws IOException {
+        try (OutputStream out = new FileOutputStream(f)) {
+            out.write(data);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        oldDb = readAsset(ctx, "delta-old.db");
+        newDb = readAsset(ctx, "delta-new.db");
+        patch = readAsset(ctx, "delta-old-new.bin");
+        db = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(), "delta-test.db");
+        write(db, oldDb);
+    }
+
+    @Test
+    public void apply() throws IOException {
+        int pages = DictDelta.apply(new ByteArrayInputStream(patch), db, OLD_REV, NEW_REV);
+        assertThat(pages, greaterThan(0));
+        assertArrayEquals(newDb, Files.readAllBytes(db.toPath()));
+        // Applying it again (e.g., after being killed before writing "dict.rev") does nothing.
+        assertEquals(pages, DictDelta.apply(new ByteArrayInputStream(patch), db, OLD_REV, NEW_REV));
+        assertArrayEquals(newDb, Files.readAllBytes(db.toPath()));
+    }
+
+    @Test
+    public void skipsOtherRevisions() throws IOException {
+        assertEquals(-1, DictDelta.apply(new ByteArrayInputStream(patch), db, NEW_REV, NEW_REV));
+        assertEquals(-1, DictDelta.apply(new ByteArrayInputStream(patch), db, OLD_REV, OLD_REV));
+        assertEquals(-1, DictDelta.apply(new ByteArrayInputStream(new byte[0]), db, OLD_REV, NEW_REV));
+        assertArrayEquals(oldDb, Files.readAllBytes(db.toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedPatch() throws IOException {
+        byte[] truncated = Arrays.copyOf(patch, patch.length / 2);
+        DictDelta.apply(new ByteArrayInputStream(truncated), db, OLD_REV, NEW_REV);
+    }
+}
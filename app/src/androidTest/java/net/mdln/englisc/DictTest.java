@@ -2,53 +2,234 @@ package net.mdln.englisc;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 public class DictTest {
 
     @Test
-    public void search() {
-        final String[][] expectedResults = {
-                /* inflected form */ {"healp", "helpan"},
-                /* phrase search in modern English */ {"to write", "mis-writan"},
-                /* frequent word that should match canonical entry */ {"thaet", "þæt"},
-                /* word with non-ASCII characters in search */ {"þrittig", "þritig"},
-                /* variant spelling of very common word */ {"þonne", "þanne"},
-                /* manually-added variant */ {"Swylce", "swilc"},
-        };
+    public void search() throws IOException, JSONException {
+        // The same searches are checked against the FTS5 search in bench's Fts5SearchTest.
         Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
-        try (SQLiteDatabase db = DictDB.get(ctx)) {
+        Context testCtx = InstrumentationRegistry.getInstrumentation().getContext();
+        try (SQLiteDatabase db = DictDB.get(ctx);
+             BufferedReader r = new BufferedReader(new InputStreamReader(
+                     testCtx.getAssets().open("search-cases.jsonl"), StandardCharsets.UTF_8))) {
             Dict d = new Dict(db);
-            for (String[] ex : expectedResults) {
-                String query = ex[0];
-                String expectedTerm = ex[1];
+            String line;
+            int n = 0;
+            while ((line = r.readLine()) != null) {
+                JSONArray c = new JSONArray(line);
+                String query = c.getString(0);
+                String msg = "query: '" + query + "' (" + c.getString(2) + ")";
                 List<Term> t = d.search(query, 100);
-                String msg = "query: '" + query + "'";
                 assertThat(msg, t.size(), greaterThan(0));
                 assertThat(msg, t.size(), lessThan(120));
-                assertEquals(msg, expectedTerm, t.get(0).title());
+                assertEquals(msg, c.getString(1), t.get(0).title());
+                // HTML is loaded separately from the search itself; make sure it's there, and that
+                // it's the start of the whole entry.
+                assertThat(msg, t.get(0).defnHtml().length(), greaterThan(0));
+                assertTrue(msg, d.loadNid(t.get(0).nid()).defnHtml().startsWith(t.get(0).defnHtml()));
+                n++;
             }
+            assertThat(n, greaterThan(0));
+        }
+    }
+
+    @Test
+    public void searchIsCached() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            Dict d = new Dict(db);
+            List<Term> first = d.search("healp", 50);
+            assertEquals(0, d.cacheHitCount());
+            assertEquals(1, d.cacheMissCount());
+            // The cache key is the normalized query, so this should be a hit.
+            List<Term> second = d.search(" Healp", 50);
+            assertEquals(first, second);
+            assertEquals(1, d.cacheHitCount());
+            d.search("healp", 10);
+            assertEquals(2, d.cacheMissCount());
+        }
+    }
+
+    @Test
+    public void narrowedSearchMatchesFullSearch() {
+        final String[] typed = {"he", "hel", "help", "helpa", "helpan", "sw", "swy", "swylc", "swylce"};
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            Dict narrowing = new Dict(db);
+            for (String query : typed) {
+                // A new Dict has no previous results to narrow, so it always does a full search.
+                List<Term> expected = new Dict(db).search(query, 50);
+                assertEquals("query: '" + query + "'", expected, narrowing.search(query, 50));
+            }
+        }
+    }
+
+    @Test
+    public void indexedSearchMatchesFullSearch() {
+        final String[] queries = {"h", "he", "hel", "help", "helpan", "healp", "swylce", "thaet", "zzzz", "to help"};
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            TermIndex index = DictDB.getTermIndex(ctx);
+            assertNotNull(index);
+            for (String query : queries) {
+                // New Dicts, so that neither narrows a previous search.
+                List<Term> expected = new Dict(db).search(query, 50);
+                assertEquals("query: '" + query + "'", expected, new Dict(db, index).search(query, 50));
+            }
+        }
+    }
+
+    @Test
+    public void fuzzySearch() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            Dict d = new Dict(db, DictDB.getTermIndex(ctx));
+            // A misspelling that matches nothing exactly.
+            List<Term> t = d.search("helpanx", 50);
+            assertThat(t.size(), greaterThan(0));
+            assertEquals("helpan", t.get(0).title());
+            // Fuzzy matches don't displace the real ones.
+            assertEquals(new Dict(db).search("healp", 50).get(0), d.search("healp", 50).get(0));
+        }
+    }
+
+    @Test
+    public void maxResultsTakesTheBestResults() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            List<Term> all = new Dict(db).search("hel", 50);
+            assertThat(all.size(), greaterThan(5));
+            assertEquals(all.subList(0, 5), new Dict(db).search("hel", 50, 5, null));
+        }
+    }
+
+    @Test
+    public void loadNids() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            Dict d = new Dict(db);
+            List<Term> found = d.search("healp", 50);
+            assertThat(found.size(), greaterThan(2));
+            int nid0 = found.get(0).nid();
+            int nid1 = found.get(1).nid();
+            int missing = Integer.MAX_VALUE;
+            List<Term> loaded = d.loadNids(Arrays.asList(nid1, missing, nid0, nid1));
+            assertEquals(Arrays.asList(d.loadNid(nid1), d.loadNid(nid0), d.loadNid(nid1)), loaded);
+            assertNull(d.loadNid(missing));
         }
     }
 
+    @Test
+    public void prefetchNids() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            Dict d = new Dict(db);
+            List<Term> found = d.search("healp", 50);
+            int nid0 = found.get(0).nid();
+            int nid1 = found.get(1).nid();
+            int missing = Integer.MAX_VALUE;
+            assertEquals(2, d.prefetchNids(Arrays.asList(nid0, missing, nid1), new CancellationSignal()));
+            // They're cached now, so the same objects come back.
+            assertSame(d.loadNid(nid0), d.loadNid(nid0));
+            assertEquals(0, d.prefetchNids(Arrays.asList(nid0, nid1), new CancellationSignal()));
+            CancellationSignal cancelled = new CancellationSignal();
+            cancelled.cancel();
+            assertEquals(0, d.prefetchNids(Arrays.asList(found.get(2).nid()), cancelled));
+        }
+    }
+
+    @Test
+    public void rankKeepsBestMatchPerTitle() {
+        SearchCore.Row a1 = new SearchCore.Row("a", null, 1, "/a/", "e", 1);
+        SearchCore.Row a2 = new SearchCore.Row("a", null, 2, "/a/", "e", 2);
+        SearchCore.Row b = new SearchCore.Row("b", null, 3, "/b/", "e", 1);
+        SearchCore.Row c = new SearchCore.Row("c", null, 4, "/c/", "e", 1);
+        SearchCore.Row d = new SearchCore.Row("d", null, 5, "/d/", "e", 1);
+        List<SearchCore.Match> ranked = SearchCore.rank(Arrays.asList(
+                new SearchCore.Match(a1, 1.0),
+                new SearchCore.Match(c, 2.0),
+                new SearchCore.Match(a2, 3.0),
+                new SearchCore.Match(b, 2.0),
+                new SearchCore.Match(d, 0.001)), 10);
+        assertEquals(3, ranked.size());
+        assertEquals(a2, ranked.get(0).row);
+        assertEquals(b, ranked.get(1).row);
+        assertEquals(c, ranked.get(2).row);
+        List<SearchCore.Match> top2 = SearchCore.rank(Arrays.asList(
+                new SearchCore.Match(c, 2.0),
+                new SearchCore.Match(b, 2.0),
+                new SearchCore.Match(a2, 3.0)), 2);
+        assertEquals(2, top2.size());
+        assertEquals(a2, top2.get(0).row);
+        assertEquals(b, top2.get(1).row);
+    }
+
+    @Test
+    public void firstTokenWithPrefix() {
+        assertEquals(5, SearchCore.firstTokenWithPrefix("/foo/help/helpan/", "hel"));
+        assertEquals(10, SearchCore.firstTokenWithPrefix("/foo/ahel hela/", "hel"));
+        assertEquals(-1, SearchCore.firstTokenWithPrefix("/foo/ahel/", "hel"));
+    }
+
     @Test
     public void parseOffets() {
-        List<MatchOffset> offsets = Dict.parseOffsets("1 2 3 4");
+        List<MatchOffset> offsets = SearchCore.parseOffsets("1 2 3 4");
         List<MatchOffset> expected = Collections.singletonList(MatchOffset.create(1, 2, 3, 4));
         assertEquals(expected, offsets);
     }
 
+    @Test
+    public void firstMatchOffsetMatchesParseOffsets() {
+        String[] examples = {"1 2 3 4", "1 0 15 3 4 1 1 6 4 1 14 4", "4 1 123 5", "10 20 30 40 1 2 3 4"};
+        for (String offsets : examples) {
+            assertEquals(offsets, SearchCore.parseOffsets(offsets).get(0).offset(), SearchCore.firstMatchOffset(offsets));
+        }
+        assertEquals(-1, SearchCore.firstMatchOffset(""));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void firstMatchOffsetRejectsGarbage() {
+        SearchCore.firstMatchOffset("1 2 x 4");
+    }
+
+    @Test
+    public void containsTermMatchesConcatenation() {
+        String[] terms = {"/help/", "/helpan/healp/", "/a b/help/", "/ahelp/helpa/", "/help"};
+        String[] queries = {"help", "healp", "a b", "b", "elp", "helpan"};
+        for (String t : terms) {
+            for (String q : queries) {
+                assertEquals(t + " " + q, t.contains("/" + q + "/"), SearchCore.containsTerm(t, q));
+            }
+        }
+    }
+
     @Test
     public void normalizeQuery() {
         assertEquals("thaet", Dict.normalizeQuery("þæt"));
@@ -58,4 +239,50 @@ public class DictTest {
     public void normalizeAccentedQuery() {
         assertEquals("aela", Dict.normalizeQuery("\u01fd-l\u00e1!"));
     }
+
+    @Test
+    public void normalizeQueryMatchesAscify() throws IOException, JSONException {
+        // The same cases are checked against ascify in db/test_normalize.py.
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                ctx.getAssets().open("ascify-cases.jsonl"), StandardCharsets.UTF_8))) {
+            String line;
+            int n = 0;
+            while ((line = r.readLine()) != null) {
+                JSONArray c = new JSONArray(line);
+                assertEquals(c.getString(0), c.getString(1), Dict.normalizeQuery(c.getString(0)));
+                n++;
+            }
+            assertThat(n, greaterThan(0));
+        }
+    }
+
+    @Test
+    public void skeletonMatchesPython() throws IOException, JSONException {
+        // The same cases are checked against skeleton in db/test_normalize.py.
+        Context ctx = InstrumentationRegistry.getInstrumentation().getContext();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                ctx.getAssets().open("skeleton-cases.jsonl"), StandardCharsets.UTF_8))) {
+            String line;
+            int n = 0;
+            while ((line = r.readLine()) != null) {
+                JSONArray c = new JSONArray(line);
+                assertEquals(c.getString(0), c.getString(1), QueryNormalizer.skeleton(c.getString(0)));
+                n++;
+            }
+            assertThat(n, greaterThan(0));
+        }
+    }
+
+    @Test
+    public void searchFindsSpellingVariants() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            List<String> titles = new ArrayList<>();
+            for (Term t : new Dict(db).search("kyning", 100)) {
+                titles.add(t.title());
+            }
+            assertThat(titles, hasItem("cyning"));
+        }
+    }
 }
@@ -0,0 +1,35 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class HistoryRecorderTest {
+
+    @Test
+    public void recordsInBatches() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (TermHistory history = new TermHistory(ctx, TermHistory.Location.IN_MEMORY);
+             HistoryRecorder recorder = new HistoryRecorder(history)) {
+            recorder.record(100, 1000);
+            recorder.record(101, 1001);
+            recorder.record(100, 1002);
+            // Nothing is written until the timer fires or we flush.
+            assertEquals(Collections.emptyList(), history.getIds(3));
+            recorder.flushAndWait();
+            assertEquals(Arrays.asList(100, 101), history.getIds(3));
+            assertEquals(2, history.getViewCount(100));
+            recorder.record(101, 1003);
+            // Reading through the recorder writes the queued views first.
+            assertEquals(Arrays.asList(101, 100), recorder.getIds(3));
+            assertEquals(Arrays.asList(101, 100), history.getIds(3));
+        }
+    }
+}
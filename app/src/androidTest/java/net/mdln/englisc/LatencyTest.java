@@ -0,0 +1,49 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatencyTest {
+
+    @Before
+    public void setUp() {
+        Latency.reset();
+    }
+
+    @Test
+    public void percentile() {
+        long[] sorted = {10, 20, 30, 40, 50, 60, 70, 80, 90, 100};
+        assertEquals(10, Latency.percentile(sorted, 0));
+        assertEquals(50, Latency.percentile(sorted, 50));
+        assertEquals(100, Latency.percentile(sorted, 95));
+        assertEquals(100, Latency.percentile(sorted, 99));
+        assertEquals(7, Latency.percentile(new long[]{7}, 50));
+    }
+
+    @Test
+    public void summaryKeepsRecentMeasurements() {
+        assertEquals("", Latency.summary());
+        // The first measurements fall out of the window, so the slow ones are all that's left.
+        for (int i = 0; i < Latency.WINDOW_SIZE; i++) {
+            Latency.record(Latency.SEARCH_SQL, 1_000_000);
+        }
+        for (int i = 0; i < Latency.WINDOW_SIZE; i++) {
+            Latency.record(Latency.SEARCH_SQL, 3_000_000);
+        }
+        Latency.record(Latency.SEARCH, 2_000_000);
+        assertEquals("search: n=1 p50=2.00ms p95=2.00ms p99=2.00ms\n"
+                        + "search.sql: n=" + Latency.WINDOW_SIZE + " p50=3.00ms p95=3.00ms p99=3.00ms\n",
+                Latency.summary());
+    }
+
+    @Test
+    public void sectionRecordsDuration() {
+        try (Latency.Section s = Latency.start(Latency.SEARCH_RANK)) {
+            assertTrue(Latency.summary().isEmpty());
+        }
+        assertTrue(Latency.summary().startsWith("search.rank: n=1 "));
+    }
+}
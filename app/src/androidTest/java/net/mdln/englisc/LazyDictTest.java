@@ -0,0 +1,34 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+public class LazyDictTest {
+
+    @Test
+    public void sharesOneDict() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Dict first;
+        try (LazyDict a = new LazyDict(ctx)) {
+            first = a.get();
+            LazyDict b = new LazyDict(ctx);
+            assertSame(first, b.get());
+            b.close();
+            b.close();  // Closing twice must not release a's reference.
+            // a's Dict is still open.
+            assertEquals("wyrian", a.get().search("wirest", 50).get(0).title());
+        }
+        // Everything was released, so we get a new one.
+        try (LazyDict c = new LazyDict(ctx)) {
+            assertNotSame(first, c.get());
+            assertEquals("wyrian", c.get().search("wirest", 50).get(0).title());
+        }
+    }
+}
@@ -24,10 +24,13 @@ import android.widget.EditText;
 import android.widget.ImageButton;
 
 import androidx.appcompat.widget.Toolbar;
+import androidx.test.espresso.IdlingRegistry;
 import androidx.test.espresso.web.webdriver.Locator;
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import org.junit.After;
 import org.junit.Assume;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
@@ -37,6 +40,17 @@ public class MainActivityTest {
     @SuppressWarnings("deprecation")
     @Rule
     public androidx.test.rule.ActivityTestRule<MainActivity> activityRule = new androidx.test.rule.ActivityTestRule<>(MainActivity.class, true, true);
+    private final DefnLoadedIdlingResource defnLoaded = new DefnLoadedIdlingResource();
+
+    @Before
+    public void registerIdlingResources() {
+        IdlingRegistry.getInstance().register(defnLoaded);
+    }
+
+    @After
+    public void unregisterIdlingResources() {
+        IdlingRegistry.getInstance().unregister(defnLoaded);
+    }
 
     /**
      * Check that you can type text and click on a result to get a dialog. This just tests UI
@@ -0,0 +1,40 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RowTextTest {
+
+    @Test
+    public void truncateHtml() {
+        assertEquals("<b>short</b>", RowText.truncateHtml("<b>short</b>", 100));
+        assertEquals("<b>abc</b> ", RowText.truncateHtml("<b>abc</b> <i>def</i>", 13));
+        assertEquals("a ", RowText.truncateHtml("a &amp; b", 5));
+        assertEquals("a &amp; ", RowText.truncateHtml("a &amp; b", 8));
+    }
+
+    @Test
+    public void searchResultsHaveEnoughHtml() {
+        // Otherwise truncateHtml could return a search result's HTML cut in the middle of a tag.
+        assertTrue(RowText.MAX_HTML_CHARS < SearchCore.PREVIEW_HTML_CHARS);
+    }
+
+    @Test
+    public void get() {
+        RowText rowText = new RowText(10);
+        Term modE = Term.create("healp", "<b>healp</b> help", null, "help", 1, 1.0);
+        assertEquals("healp; help", rowText.get(modE).toString());
+        assertSame(rowText.get(modE), rowText.get(modE));
+        StringBuilder html = new StringBuilder("<a href=\"https://btc.invalid/3\">long</a>");
+        for (int i = 0; i < 1000; i++) {
+            html.append(" <i>word</i>");
+        }
+        Term longDefn = Term.create("long", html.toString(), null, null, 2, 1.0);
+        CharSequence text = rowText.get(longDefn);
+        assertEquals(RowText.MAX_CHARS, text.length());
+        assertEquals("long word word", text.subSequence(0, 14).toString());
+    }
+}
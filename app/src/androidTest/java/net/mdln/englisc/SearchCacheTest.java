@@ -0,0 +1,73 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+public class SearchCacheTest {
+
+    private static List<Term> termList(String html) {
+        return Collections.singletonList(Term.create("title", html, null, null, 1, 1.0));
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        SearchCache cache = new SearchCache(10, 1 << 20);
+        List<Term> terms = termList("defn");
+        assertNull(cache.get("foo", 50, 10));
+        cache.put("foo", 50, 10, terms);
+        assertSame(terms, cache.get("foo", 50, 10));
+        assertNull(cache.get("foo", 100, 10));
+        assertNull(cache.get("foo", 50, 20));
+        assertEquals(1, cache.hitCount());
+        assertEquals(3, cache.missCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByCount() {
+        SearchCache cache = new SearchCache(2, 1 << 20);
+        cache.put("a", 50, 10, termList("a"));
+        cache.put("b", 50, 10, termList("b"));
+        cache.get("a", 50, 10);
+        cache.put("c", 50, 10, termList("c"));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b", 50, 10));
+    }
+
+    @Test
+    public void evictsByBytes() {
+        List<Term> big = termList(new String(new char[1000]));
+        long bigBytes = SearchCache.approximateBytes(big);
+        SearchCache cache = new SearchCache(10, bigBytes * 2);
+        cache.put("a", 50, 10, big);
+        cache.put("b", 50, 10, big);
+        cache.put("c", 50, 10, big);
+        assertEquals(2, cache.size());
+        assertEquals(bigBytes * 2, cache.sizeInBytes());
+        assertNull(cache.get("a", 50, 10));
+        // Results bigger than the whole cache are not cached at all.
+        SearchCache tiny = new SearchCache(10, bigBytes - 1);
+        tiny.put("a", 50, 10, big);
+        assertEquals(0, tiny.size());
+    }
+
+    @Test
+    public void trimMemory() {
+        SearchCache cache = new SearchCache(4, 1 << 20);
+        for (String q : new String[]{"a", "b", "c", "d"}) {
+            cache.put(q, 50, 10, termList(q));
+        }
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(2, cache.size());
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.sizeInBytes());
+    }
+}
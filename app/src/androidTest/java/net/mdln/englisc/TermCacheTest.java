@@ -0,0 +1,54 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+public class TermCacheTest {
+
+    private static Term term(int nid, String html) {
+        return Term.create("title", html, null, null, nid, 0.0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        TermCache cache = new TermCache(2, 1 << 20);
+        Term a = term(1, "a");
+        cache.put(a);
+        cache.put(term(2, "b"));
+        assertSame(a, cache.get(1));
+        cache.put(term(3, "c"));
+        assertEquals(2, cache.size());
+        assertNull(cache.get(2));
+        assertSame(a, cache.get(1));
+    }
+
+    @Test
+    public void evictsByBytes() {
+        Term big = term(1, new String(new char[1000]));
+        TermCache cache = new TermCache(10, 3000);
+        cache.put(big);
+        cache.put(term(2, new String(new char[1000])));
+        assertEquals(1, cache.size());
+        assertNull(cache.get(1));
+        TermCache tiny = new TermCache(10, 100);
+        tiny.put(big);
+        assertEquals(0, tiny.size());
+    }
+
+    @Test
+    public void trimMemory() {
+        TermCache cache = new TermCache(10, 1 << 20);
+        for (int i = 0; i < 10; i++) {
+            cache.put(term(i, "x"));
+        }
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(5, cache.size());
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, cache.size());
+    }
+}
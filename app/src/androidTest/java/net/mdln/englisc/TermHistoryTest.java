@@ -3,19 +3,23 @@ package net.mdln.englisc;
 import static org.junit.Assert.assertEquals;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class TermHistoryTest {
 
     @Test
     public void history() {
         Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
-        try (TermHistory history = new TermHistory(ctx, TermHistory.Location.IN_MEMORY, 0)) {
+        try (TermHistory history = new TermHistory(ctx, TermHistory.Location.IN_MEMORY)) {
             history.recordId(100, 1000);
             history.recordId(101, 1001);
             history.recordId(101, 1002);
@@ -26,6 +30,50 @@ public class TermHistoryTest {
             expectedIds.add(100);
             assertEquals(expectedIds, history.getIds(2));
             assertEquals(expectedIds, history.getIds(3));
+            assertEquals(2, history.getViewCount(101));
+            assertEquals(0, history.getViewCount(102));
+            // An older view of 101 adds to its count but doesn't change when it was last seen.
+            history.recordViews(Arrays.asList(new TermHistory.View(100, 1003, 1), new TermHistory.View(101, 999, 2)));
+            assertEquals(Arrays.asList(100, 101), history.getIds(2));
+            assertEquals(4, history.getViewCount(101));
+        }
+    }
+
+    @Test
+    public void prune() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (TermHistory history = new TermHistory(ctx, TermHistory.Location.IN_MEMORY)) {
+            List<TermHistory.View> views = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                views.add(new TermHistory.View(i, 1000L * i, 1));
+            }
+            history.recordViews(views);
+            // Everything before 100 is too old, and then only the newest 600 are kept.
+            assertEquals(400, history.prune(100 * 1000L, 600));
+            List<Integer> ids = history.getIds(1000);
+            assertEquals(600, ids.size());
+            assertEquals(999, (int) ids.get(0));
+            assertEquals(400, (int) ids.get(599));
+            assertEquals(0, history.prune(0, 1000));
+        }
+    }
+
+    @Test
+    public void upgradeFromV1() {
+        try (SQLiteDatabase db = SQLiteDatabase.create(null)) {
+            db.execSQL("CREATE TABLE history (nid INTEGER, timestamp_secs REAL)");
+            db.execSQL("INSERT INTO history (nid, timestamp_secs) VALUES (100, 1.0), (101, 1.001), (100, 1.002)");
+            TermHistory.upgradeFromV1(db);
+            try (Cursor cursor = db.rawQuery("SELECT nid, last_seen_secs, view_count FROM history ORDER BY nid", new String[]{})) {
+                assertEquals(2, cursor.getCount());
+                cursor.moveToNext();
+                assertEquals(100, cursor.getInt(0));
+                assertEquals(1.002, cursor.getDouble(1), 1e-9);
+                assertEquals(2, cursor.getInt(2));
+                cursor.moveToNext();
+                assertEquals(101, cursor.getInt(0));
+                assertEquals(1, cursor.getInt(2));
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,138 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TermIndexTest {
+
+    private static List<Integer> ftsPrefixMatches(SQLiteDatabase db, String prefix) {
+        List<Integer> nids = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT rowid FROM defn_idx WHERE terms MATCH ?", new String[]{prefix + "*"})) {
+            while (cursor.moveToNext()) {
+                nids.add(cursor.getInt(0));
+            }
+        }
+        Collections.sort(nids);
+        return nids;
+    }
+
+    @Test
+    public void matchesFts() {
+        final String[] prefixes = {"he", "hel", "help", "helpan", "healp", "swylce", "thaet", "zzzz"};
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase db = DictDB.get(ctx)) {
+            TermIndex index = DictDB.getTermIndex(ctx);
+            for (String prefix : prefixes) {
+                List<Integer> nids = index.nidsWithPrefix(prefix, Integer.MAX_VALUE);
+                Collections.sort(nids);
+                assertEquals("prefix: '" + prefix + "'", ftsPrefixMatches(db, prefix), nids);
+            }
+            int n = ftsPrefixMatches(db, "he").size();
+            assertEquals(n, index.nidsWithPrefix("he", n).size());
+            assertNull(index.nidsWithPrefix("he", n - 1));
+        }
+    }
+
+    private static int editDistance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    d[i][j] = i + j;
+                } else {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    @Test
+    public void wordsNear() {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        try (SQLiteDatabase ignored = DictDB.get(ctx)) {
+            TermIndex index = DictDB.getTermIndex(ctx);
+            long noDeadline = System.nanoTime() + 3600L * 1000 * 1000 * 1000;
+            List<TermIndex.Near> near = index.wordsNear("thrittig", 2, noDeadline);
+            List<String> words = new ArrayList<>();
+            int prevDistance = 0;
+            for (TermIndex.Near n : near) {
+                words.add(n.word);
+                assertEquals(n.word, editDistance("thrittig", n.word), n.distance);
+                assertTrue(n.distance <= 2);
+                assertTrue(n.distance >= prevDistance);
+                prevDistance = n.distance;
+                assertFalse(index.nids(n).isEmpty());
+            }
+            assertTrue(words.contains("thritig"));
+            // It gives up once the deadline has passed.
+            assertTrue(index.wordsNear("thrittig", 2, System.nanoTime() - 1).isEmpty());
+        }
+    }
+
+    @Test
+    public void canLookUp() {
+        assertTrue(TermIndex.canLookUp("helpan"));
+        assertFalse(TermIndex.canLookUp(""));
+        assertFalse(TermIndex.canLookUp("to help"));
+        assertFalse(TermIndex.canLookUp("þæt"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File f = new File(ctx.getCacheDir(), "not-a-term-index");
+        try (OutputStream out = new FileOutputStream(f)) {
+            out.write("SQLite format 3\0".getBytes("US-ASCII"));
+        }
+        try {
+            TermIndex.open(f);
+        } finally {
+            assertTrue(f.delete());
+        }
+    }
+
+    @Test
+    public void rejectsShortFiles() throws IOException {
+        // Empty, shorter than the header, and with a header that promises more than there is.
+        byte[][] contents = {
+                {},
+                {'B', 'T', 'C', 'T'},
+                {'B', 'T', 'C', 'T', 'E', 'R', 'M', '1', 0, 0, 3, (byte) 0xe8, 0, 0, 0, 1, 0, 0, 0, 0},
+        };
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        File f = new File(ctx.getCacheDir(), "short-term-index");
+        for (byte[] c : contents) {
+            try (OutputStream out = new FileOutputStream(f)) {
+                out.write(c);
+            }
+            try {
+                TermIndex.open(f);
+                fail("opened a " + c.length + "-byte file");
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+        assertTrue(f.delete());
+    }
+}
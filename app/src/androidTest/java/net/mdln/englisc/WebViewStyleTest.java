@@ -0,0 +1,131 @@
+package net.mdln.englisc;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+import android.webkit.WebView;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to show the longest definition in a {@link DefnActivity}'s WebView,
+ * from the UI thread starting to load it until it's drawn, with {@link WebViewStyle} and with the
+ * way it used to work. The timings are only logged (under "WebViewStyleTest"), since they vary
+ * too much from device to device to assert on, but both ways have to show the whole definition.
+ */
+public class WebViewStyleTest {
+    private static final int RUNS = 5;
+
+    // TODO: Migrate to https://developer.android.com/reference/androidx/test/core/app/ActivityScenario
+    @SuppressWarnings("deprecation")
+    @Rule
+    public androidx.test.rule.ActivityTestRule<DefnActivity> activityRule =
+            new androidx.test.rule.ActivityTestRule<>(DefnActivity.class, true, false);
+
+    private static String longestDefinition(Context ctx) {
+        try (SQLiteDatabase db = DictDB.get(ctx);
+             Cursor cursor = db.rawQuery("SELECT html FROM defn_content ORDER BY length(html) DESC LIMIT 1", null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+    }
+
+    /**
+     * What {@code WebViewStyle.apply} used to do: read the stylesheet, build the document, and
+     * base64-encode it for loadData, all on the UI thread.
+     */
+    private static void loadBase64(Context ctx, WebView view, String html) {
+        String headBlock = "<head><style type=\"text/css\">" + Streams.readUtf8Resource(ctx, R.raw.defn) + "</style></head>";
+        String document = "<html>" + headBlock + "<body class=\"light\">" + html + "</body></html>";
+        String encoded = Base64.encodeToString(document.getBytes(StandardCharsets.UTF_8), Base64.NO_PADDING);
+        view.loadData(encoded, "text/html; charset=utf-8", "base64");
+    }
+
+    /**
+     * Runs {@code load} on the UI thread and returns the median time in milliseconds until the
+     * WebView has drawn the result, and the median time {@code load} itself took.
+     */
+    private static long[] timeToFirstPaint(Instrumentation inst, WebView view, Runnable load) throws InterruptedException {
+        long[] paint = new long[RUNS];
+        long[] uiThread = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            final int run = i;
+            final long[] start = new long[1];
+            final CountDownLatch painted = new CountDownLatch(1);
+            inst.runOnMainSync(() -> {
+                start[0] = SystemClock.elapsedRealtime();
+                load.run();
+                uiThread[run] = SystemClock.elapsedRealtime() - start[0];
+                WebViewCompat.postVisualStateCallback(view, run, requestId -> {
+                    paint[run] = SystemClock.elapsedRealtime() - start[0];
+                    painted.countDown();
+                });
+            });
+            assertTrue(painted.await(30, TimeUnit.SECONDS));
+        }
+        Arrays.sort(paint);
+        Arrays.sort(uiThread);
+        return new long[]{paint[RUNS / 2], uiThread[RUNS / 2]};
+    }
+
+    /**
+     * Returns the height of the document that {@code view} last drew, in CSS pixels.
+     */
+    private static int contentHeight(Instrumentation inst, WebView view) {
+        final int[] height = new int[1];
+        inst.runOnMainSync(() -> height[0] = view.getContentHeight());
+        return height[0];
+    }
+
+    @Test
+    public void timeToFirstPaint() throws InterruptedException {
+        Assume.assumeTrue(WebViewFeature.isFeatureSupported(WebViewFeature.VISUAL_STATE_CALLBACK));
+        Instrumentation inst = InstrumentationRegistry.getInstrumentation();
+        Context ctx = inst.getTargetContext();
+        Intent intent = new Intent(ctx, DefnActivity.class);
+        intent.putExtra(DefnActivity.EXTRA_BTC_URL, DefnActivity.BTC_ABOUT_URL);
+        DefnActivity activity = activityRule.launchActivity(intent);
+        WebView view = activity.findViewById(R.id.defn_content);
+        String html = longestDefinition(ctx);
+
+        // What DefnActivity shows while it loads a definition. Each way of loading the longest
+        // definition has to make the page taller than this.
+        timeToFirstPaint(inst, view, () -> WebViewStyle.loadBlank(view));
+        int blankHeight = contentHeight(inst, view);
+
+        long[] before = timeToFirstPaint(inst, view, () -> loadBase64(ctx, view, html));
+        assertThat(contentHeight(inst, view), greaterThan(blankHeight));
+        // DefnActivity builds the document on its background thread.
+        long startMillis = SystemClock.elapsedRealtime();
+        String document = WebViewStyle.styledHtml(ctx, html);
+        long styleMillis = SystemClock.elapsedRealtime() - startMillis;
+        timeToFirstPaint(inst, view, () -> WebViewStyle.loadBlank(view));
+        long[] after = timeToFirstPaint(inst, view, () -> WebViewStyle.load(view, document));
+        assertThat(contentHeight(inst, view), greaterThan(blankHeight));
+
+        Log.i("WebViewStyleTest", "Longest definition (" + html.length() + " chars): base64 loadData took "
+                + before[0] + "ms to first paint (" + before[1] + "ms on the UI thread); loadDataWithBaseURL took "
+                + after[0] + "ms (" + after[1] + "ms on the UI thread, after " + styleMillis + "ms building it "
+                + "in the background).");
+    }
+}
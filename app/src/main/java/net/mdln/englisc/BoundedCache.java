@@ -0,0 +1,126 @@
+package net.mdln.englisc;
+
+import android.content.ComponentCallbacks2;
+
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache bounded both by the number of entries and by their approximate
+ * size in bytes, as given by {@link #sizeOf}. {@link SearchCache} and {@link TermCache} hold
+ * definitions, which vary a lot in size, so a bound on the count alone wouldn't bound memory.
+ * <p>
+ * All methods are thread-safe.
+ */
+abstract class BoundedCache<K, V> {
+    private final int maxEntries;
+    private final long maxBytes;
+    // Iteration order is least-recently-accessed first.
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    BoundedCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the approximate size of {@code value} in bytes. This is called once per
+     * {@link #put}, so it doesn't have to be cheap.
+     */
+    abstract long sizeOf(V value);
+
+    /**
+     * Returns the cached value for {@code key}, or null if there is none.
+     */
+    @Nullable
+    synchronized V get(K key) {
+        Entry<V> e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    synchronized boolean containsKey(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Caches {@code value}, which must not be modified afterwards, evicting old entries as
+     * needed. A value that would take up more than the whole byte budget is not cached.
+     */
+    synchronized void put(K key, V value) {
+        long size = sizeOf(value);
+        if (size > maxBytes) {
+            return;
+        }
+        Entry<V> old = entries.put(key, new Entry<>(value, size));
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+        bytes += size;
+        trimTo(maxEntries, maxBytes);
+    }
+
+    /**
+     * Evict least-recently-used entries until there are at most {@code entryLimit} entries
+     * using at most {@code byteLimit} bytes.
+     */
+    synchronized void trimTo(int entryLimit, long byteLimit) {
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext() && (entries.size() > entryLimit || bytes > byteLimit)) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        trimTo(0, 0);
+    }
+
+    /**
+     * Evict entries in response to {@link ComponentCallbacks2#onTrimMemory}. If
+     * the app is in the background, everything goes; otherwise, the cache is cut in half.
+     */
+    void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            clear();
+        } else {
+            trimTo(maxEntries / 2, maxBytes / 2);
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long sizeInBytes() {
+        return bytes;
+    }
+
+    synchronized long hitCount() {
+        return hits;
+    }
+
+    synchronized long missCount() {
+        return misses;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long bytes;
+
+        Entry(V value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -3,6 +3,10 @@ package net.mdln.englisc;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -11,25 +15,45 @@ import android.webkit.WebView;
 import android.webkit.WebViewClient;
 import android.widget.SearchView;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * An activity for viewing definitions. In the intent that starts it, it must be passed
  * {@link #EXTRA_BTC_URL}, which is of the form https://btc.invalid/N where N is the nid of the
  * term. The weird URL format is to ensure Android's WebView triggers a navigation. (As a hack,
  * {@link #BTC_ABOUT_URL} lets us use this Activity for showing the "About" content.)
+ * <p>
+ * The definition is loaded on a background thread, since the first time the app runs, the
+ * dictionary may still be being copied. Until it arrives, we show the toolbar and an empty,
+ * styled WebView. Then, on the same thread, we prefetch the first few terms it links to, so
+ * that following a link is quick.
  */
 public class DefnActivity extends AppCompatActivity {
     static final String EXTRA_BTC_URL = "net.mdln.englisc.DefnActivity.BTC_URL";
     static final String BTC_URL_PREFIX = "https://btc.invalid/";
     static final String BTC_ABOUT_URL = BTC_URL_PREFIX + "about";
     static final boolean ENABLE_CONJ = false;
+    private static final int MAX_PREFETCH = 8;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    // Loads the term, and then closes `dict` once the activity is destroyed, so that it isn't
+    // closed while the term is being loaded.
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    // Cancels the prefetch when the activity is destroyed. A pause (e.g., for a dialog) doesn't
+    // cancel it, since this signal can't be reset, and the prefetch already waits for searches.
+    private final CancellationSignal prefetchSignal = new CancellationSignal();
     private LazyDict dict;
+    // This is null until the term is loaded. Only accessed on the UI thread.
     private Term term;
     private Mode mode;
 
@@ -48,6 +72,29 @@ public class DefnActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Returns the nids in the first {@code max} distinct links of the form
+     * {@code <a href="https://btc.invalid/N">}, which {@code linkify} in {@code db/gen_db.py} adds
+     * to definitions, in the order they appear.
+     */
+    @VisibleForTesting
+    static List<Integer> linkedNids(String html, int max) {
+        String prefix = "href=\"" + BTC_URL_PREFIX;
+        List<Integer> nids = new ArrayList<>();
+        for (int i = html.indexOf(prefix); i >= 0 && nids.size() < max; i = html.indexOf(prefix, i)) {
+            i += prefix.length();
+            int nid = 0;
+            int digits = 0;
+            for (; i < html.length() && html.charAt(i) >= '0' && html.charAt(i) <= '9' && digits < 9; i++, digits++) {
+                nid = nid * 10 + (html.charAt(i) - '0');
+            }
+            if (digits > 0 && i < html.length() && html.charAt(i) == '"' && !nids.contains(nid)) {
+                nids.add(nid);
+            }
+        }
+        return nids;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -58,24 +105,101 @@ public class DefnActivity extends AppCompatActivity {
         }
         dict = new LazyDict(this);
         mode = Mode.DEFN;
-        if (btcUrl.equals(BTC_ABOUT_URL)) {
-            term = fakeAboutTerm();
-        } else {
-            int nid = urlToNid(btcUrl);
-            term = dict.get().loadNid(nid);
-            // Record the fact that we viewed this term in the on-disk history.
-            try (TermHistory h = new TermHistory(this, TermHistory.Location.ON_DISK, 0)) {
-                h.recordId(nid, System.currentTimeMillis());
-            }
-        }
 
         setContentView(R.layout.activity_defn);
-        updateHtmlContent();
         setSupportActionBar(findViewById(R.id.defn_toolbar));
         Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
+        ((Toolbar) findViewById(R.id.defn_toolbar)).setTitle("");
 
         WebView.setWebContentsDebuggingEnabled(true);
         setUpEventListeners();
+
+        if (btcUrl.equals(BTC_ABOUT_URL)) {
+            showTerm(fakeAboutTerm(), null);
+        } else {
+            WebViewStyle.loadBlank(findViewById(R.id.defn_content));
+            final int nid = urlToNid(btcUrl);
+            loader.execute(() -> loadTerm(nid));
+            loader.execute(() -> prefetchLinks(nid));
+        }
+    }
+
+    /**
+     * Runs on {@link #loader}. Loads the term, records it in the history, builds the styled
+     * document, and posts it to the UI thread, logging how long each step took.
+     */
+    private void loadTerm(int nid) {
+        final long startMillis = System.currentTimeMillis();
+        Dict d = dict.get();
+        final long dbReadyMillis = System.currentTimeMillis();
+        final Term t = d.loadNid(nid);
+        final long fetchedMillis = System.currentTimeMillis();
+        final String document = t == null ? null : WebViewStyle.styledHtml(this, t.defnHtml());
+        final long styledMillis = System.currentTimeMillis();
+        if (t != null) {
+            // Record the fact that we viewed this term in the on-disk history.
+            HistoryRecorder.get(this).record(nid, System.currentTimeMillis());
+        }
+        uiHandler.post(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (t == null) {
+                Log.e("DefnActivity", "No term with nid " + nid + ".");
+                finish();
+                return;
+            }
+            long postedMillis = System.currentTimeMillis();
+            showTerm(t, document);
+            long shownMillis = System.currentTimeMillis();
+            Log.i("DefnActivity", "Loaded nid " + nid + ": dictionary ready in " + (dbReadyMillis - startMillis)
+                    + "ms, row fetched in " + (fetchedMillis - dbReadyMillis) + "ms, document built in "
+                    + (styledMillis - fetchedMillis) + "ms, HTML handed to WebView in " + (postedMillis - styledMillis)
+                    + "ms (" + (shownMillis - postedMillis) + "ms on the UI thread).");
+        });
+    }
+
+    /**
+     * Runs on {@link #loader} after {@link #loadTerm}. Loads the terms linked from this one into
+     * the {@link Dict}'s cache at background priority.
+     */
+    private void prefetchLinks(int nid) {
+        if (prefetchSignal.isCanceled()) {
+            return;
+        }
+        Dict d = dict.get();
+        Term t = d.loadNid(nid);  // This is cached now.
+        if (t == null) {
+            return;
+        }
+        int priority = Process.getThreadPriority(Process.myTid());
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            long startMillis = System.currentTimeMillis();
+            int n = d.prefetchNids(linkedNids(t.defnHtml(), MAX_PREFETCH), prefetchSignal);
+            Log.d("DefnActivity", "Prefetched " + n + " terms linked from nid " + nid + " in "
+                    + (System.currentTimeMillis() - startMillis) + "ms.");
+        } finally {
+            Process.setThreadPriority(priority);
+        }
+    }
+
+    /**
+     * True once the term is showing. Tests use this to wait for it.
+     */
+    @VisibleForTesting
+    boolean isLoaded() {
+        return term != null;
+    }
+
+    /**
+     * Shows {@code t}. If {@code document} isn't null, it's the result of
+     * {@link WebViewStyle#styledHtml} for its definition, which saves building it on the UI thread.
+     */
+    private void showTerm(Term t, @Nullable String document) {
+        term = t;
+        updateHtmlContent(document);
+        invalidateOptionsMenu();
     }
 
     private void setUpEventListeners() {
@@ -91,7 +215,10 @@ public class DefnActivity extends AppCompatActivity {
                     intent.putExtra(DefnActivity.EXTRA_BTC_URL, url);
                     DefnActivity.this.startActivity(intent);
                     return true;
-                } else if (url.startsWith("data:")) {
+                } else if (url.startsWith("about:")) {
+                    // WebViewStyle.load uses no base URL, so the document is "about:blank", and
+                    // relative links (e.g., to "#anchors") resolve against it. Let the WebView
+                    // follow them rather than trying to open them in another app.
                     return false;
                 } else {
                     Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -144,8 +271,9 @@ public class DefnActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        MenuHandler.showDebugItems(menu);
         menu.findItem(R.id.main_menu_find).setVisible(true);
-        if (ENABLE_CONJ && term.conjHtml() != null) {
+        if (ENABLE_CONJ && term != null && term.conjHtml() != null) {
             menu.findItem(R.id.main_menu_conj).setVisible(true);
         }
         return true;
@@ -153,16 +281,26 @@ public class DefnActivity extends AppCompatActivity {
 
     @Override
     public boolean onOptionsItemSelected(@NotNull MenuItem item) {
-        if (new MenuHandler(this).handleSelection(item, "Current term: " + term.title())) {
+        String title = term == null ? "(loading)" : term.title();
+        if (new MenuHandler(this).handleSelection(item, "Current term: " + title)) {
             return true;
         } else {
             return super.onOptionsItemSelected(item);
         }
     }
 
+    @Override
+    protected void onStop() {
+        HistoryRecorder.get(this).flush();
+        super.onStop();
+    }
+
     @Override
     protected void onDestroy() {
-        dict.close();
+        prefetchSignal.cancel();
+        // If the term is still loading, this waits for it on `loader` without blocking the UI thread.
+        loader.execute(dict::close);
+        loader.shutdown();
         super.onDestroy();
     }
 
@@ -199,14 +337,23 @@ public class DefnActivity extends AppCompatActivity {
     }
 
     private void updateHtmlContent() {
+        updateHtmlContent(null);
+    }
+
+    private void updateHtmlContent(@Nullable String document) {
+        if (term == null) {
+            return;  // We'll be called again once it's loaded.
+        }
         String title = Character.toTitleCase(term.title().charAt(0)) + term.title().substring(1);
         if (mode == Mode.CONJ) {
             title += " " + getString(R.string.conj_suffix);
         }
         ((Toolbar) findViewById(R.id.defn_toolbar)).setTitle(title);
         WebView content = findViewById(R.id.defn_content);
-        String html = mode == Mode.DEFN ? term.defnHtml() : term.conjHtml();
-        WebViewStyle.apply(this, content, html);
+        if (document == null) {
+            document = WebViewStyle.styledHtml(this, mode == Mode.DEFN ? term.defnHtml() : term.conjHtml());
+        }
+        WebViewStyle.load(content, document);
     }
 
     enum Mode {DEFN, CONJ}
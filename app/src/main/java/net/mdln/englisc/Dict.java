@@ -1,188 +1,523 @@
 package net.mdln.englisc;
 
+import static net.mdln.englisc.SearchCore.LOAD_HTML_PREVIEWS;
+import static net.mdln.englisc.SearchCore.MAX_SQL_PARAMETERS;
+import static net.mdln.englisc.SearchCore.QRY;
+import static net.mdln.englisc.SearchCore.QRY_WITHOUT_TERMS;
+import static net.mdln.englisc.SearchCore.firstMatchOffset;
+import static net.mdln.englisc.SearchCore.firstTokenWithPrefix;
+import static net.mdln.englisc.SearchCore.scoreRow;
+import static net.mdln.englisc.SearchCore.sqlParameterList;
+
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
+import net.mdln.englisc.SearchCore.Match;
+import net.mdln.englisc.SearchCore.Row;
+import net.mdln.englisc.SearchCore.TopMatches;
+
 import org.jetbrains.annotations.NotNull;
 
-import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Uses a SQLite database to answer search queries. See {@link #search}.
  */
 final class Dict implements AutoCloseable {
-    // Scoring happens in Java, but we want to keep from returning a huge number of low-quality
-    // results. So, we return all matches on "terms", but put a a LIMIT on the number of matches
-    // in the rest of the entry (effectively, the "html" column).
-    //
-    // The weird subexpression "ORDER BY CAST(substr(offsets(defn_idx), 5) AS INTEGER)" is a way of
-    // saying "strip off the first two numbers in the offsets (which are always one digit) extract
-    // the byte-offset of the match, and sort the results with early matches first." This is done by
-    // the scoring algorithm later in Java, but unless we do a rough version of it in SQL, we may
-    // never see some results that would otherwise score highly.
-    private static final String select = "SELECT title, html, conj_html, mod_e, rowid, terms, entry_type, offsets(defn_idx) FROM defn_idx";
-    private static final String Q1 = select + " WHERE defn_idx MATCH ? ORDER BY CAST(substr(offsets(defn_idx), 5) AS INTEGER) LIMIT ?";
-    private static final String Q2 = select + " WHERE terms MATCH ?";
-    private static final String Q3 = select + " WHERE mod_e MATCH ?";
-    private static final String QRY = "SELECT * FROM (  " + Q1 + ") UNION " + Q2 + " UNION " + Q3;
-
-    private static final double MINIMUM_SCORE = 0.003;
+    // Results are cached because MainActivity searches on every keystroke and on every onResume,
+    // so the same query (e.g., after a backspace) is often repeated. A result list can hold dozens
+    // of full definitions, so the byte bound is the one that usually matters.
+    private static final int CACHE_MAX_ENTRIES = 32;
+    private static final long CACHE_MAX_BYTES = 8 * 1024 * 1024;
+    // Terms loaded by nid, mostly by prefetchNids, so that following a link doesn't wait for the
+    // database. It only needs to hold the links from the last few definitions.
+    private static final int TERM_CACHE_MAX_ENTRIES = 64;
+    private static final long TERM_CACHE_MAX_BYTES = 2 * 1024 * 1024;
+    // See withFuzzyMatches. Fuzzy matching only runs if a search finds fewer than
+    // FUZZY_MIN_RESULTS results, and gives up looking for words after FUZZY_BUDGET_NANOS.
+    private static final int FUZZY_MIN_RESULTS = 5;
+    private static final int FUZZY_MIN_QUERY_LENGTH = 4;
+    private static final int FUZZY_MAX_ROWS = 50;
+    private static final long FUZZY_BUDGET_NANOS = 15 * 1000 * 1000;
+
+    private static final String LOAD_TERMS = "SELECT id, title, html, conj_html, mod_e FROM defn_content WHERE id IN ";
+    // The same columns as SearchCore.QRY, for rows found in termIndex.
+    private static final String LOAD_ROWS = "SELECT title, mod_e, id, terms, entry_type FROM defn_content WHERE id IN ";
 
     private final SQLiteDatabase db;
+    @Nullable
+    private final TermIndex termIndex;
+    private final SearchCache cache = new SearchCache(CACHE_MAX_ENTRIES, CACHE_MAX_BYTES);
+    private final TermCache termCache = new TermCache(TERM_CACHE_MAX_ENTRIES, TERM_CACHE_MAX_BYTES);
+    // Notified when activeSearches drops to zero.
+    private final Object searchLock = new Object();
+    // The number of calls to search() in progress, so that prefetchNids can stay out of their way.
+    // Guarded by searchLock.
+    private int activeSearches = 0;
+    // Set after each search; see NarrowingState. Searches may run concurrently, so this is only
+    // ever replaced wholesale with an immutable object.
+    private volatile NarrowingState narrowing = null;
 
     Dict(@NotNull SQLiteDatabase db) {
+        this(db, null);
+    }
+
+    /**
+     * If {@code termIndex} is not null, it must have been built from {@code db}. It's used for the
+     * prefix search in "terms"; see {@link #indexedSearch}.
+     */
+    Dict(@NotNull SQLiteDatabase db, @Nullable TermIndex termIndex) {
         this.db = db;
+        this.termIndex = termIndex;
+    }
+
+    /**
+     * Matches {@code ascify} in {@code db/normalize.py}. See {@link QueryNormalizer}.
+     */
+    @VisibleForTesting
+    static String normalizeQuery(String q) {
+        return QueryNormalizer.normalize(q);
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    /**
+     * Release cached results in response to {@link android.content.ComponentCallbacks2#onTrimMemory}.
+     */
+    void onTrimMemory(int level) {
+        cache.onTrimMemory(level);
+        termCache.onTrimMemory(level);
+    }
+
+    long cacheHitCount() {
+        return cache.hitCount();
+    }
+
+    long cacheMissCount() {
+        return cache.missCount();
+    }
+
+    /**
+     * Search the database for inflected terms or HTML phrases that match {@code query}. At most
+     * {@code limit} HTML phrase matches are considered. If there are any spaces in {@code query},
+     * we can't be matching a word, so we do a phrase search. If there are no spaces, we do a word
+     * search of "html" and a prefix search in "terms". Either way, we also look for the query's
+     * skeleton (see {@link QueryNormalizer#skeleton}) in "skel", to find spelling variants.
+     * <p>
+     * When the query extends the previous one (e.g., "hel" then "help"), the prefix search in
+     * "terms" is done in memory over the previous results if we can be sure that gives the same
+     * answer. See {@link NarrowingState}. Otherwise, if there's a {@link TermIndex}, it's done
+     * with that. See {@link #indexedSearch}.
+     * <p>
+     * Returns an unmodifiable list of terms in descending score order. Results are cached, so
+     * repeating a query is cheap. The terms only hold the first
+     * {@link SearchCore#PREVIEW_HTML_CHARS} characters of their HTML and no conjugation table;
+     * use {@link #loadNid} to get the whole entry.
+     * <p>
+     * If there are only a few results and there's a {@link TermIndex}, terms that are spelled
+     * almost like the query are added. See {@link #withFuzzyMatches}. (With a small
+     * {@code maxResults}, that only happens if the search finds fewer than {@code maxResults}.)
+     */
+    List<Term> search(@NotNull String query, int limit) {
+        return search(query, limit, Integer.MAX_VALUE, null);
     }
 
     /**
-     * Matches for Modern English equivalents go first, then exact term matches
-     * and abbreviations, then we rank by how early in the HTML the query terms
-     * were.
+     * Like {@link #search(String, int)}, but returns at most the best {@code maxResults} terms,
+     * and throws {@link android.os.OperationCanceledException} if {@code signal} is cancelled while
+     * the query is running.
      */
-    private static double scoreTerm(boolean termMatch, boolean modEngMatch, boolean goodEntry, String entryType, List<MatchOffset> offsets) {
-        if (!entryType.equals("a") /* abbrev */ && !entryType.equals("e") /* entry */) {
-            throw new IllegalArgumentException("invalid entry type: '" + entryType + "'");
+    List<Term> search(@NotNull String query, int limit, int maxResults, @Nullable CancellationSignal signal) {
+        synchronized (searchLock) {
+            activeSearches++;
+        }
+        try (Latency.Section s = Latency.start(Latency.SEARCH)) {
+            return cachedSearch(query, limit, maxResults, signal);
+        } finally {
+            synchronized (searchLock) {
+                if (--activeSearches == 0) {
+                    searchLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private List<Term> cachedSearch(String query, int limit, int maxResults, CancellationSignal signal) {
+        String term;
+        try (Latency.Section s = Latency.start(Latency.SEARCH_NORMALIZE)) {
+            term = normalizeQuery(query);
+        }
+        List<Term> cached = cache.get(term, limit, maxResults);
+        if (cached != null) {
+            return cached;
+        }
+        List<Match> matches = null;
+        NarrowingState prev = narrowing;
+        if (prev != null && prev.canNarrowTo(term, limit)) {
+            matches = narrowedSearch(prev, term, limit, maxResults, signal);
+        }
+        if (matches == null && termIndex != null && TermIndex.canLookUp(term)) {
+            matches = indexedSearch(termIndex, term, limit, maxResults, signal);
         }
-        double score = (termMatch ? 2.0 : 0.0) + (entryType.equals("a") ? 1.0 : 0.0);
-        if (modEngMatch) {
-            score += 5;
+        if (matches == null) {
+            matches = fullSearch(term, limit, maxResults, signal);
         }
-        if (goodEntry) {
-            score += 0.5;
+        if (matches.size() < Math.min(FUZZY_MIN_RESULTS, maxResults) && termIndex != null && term.length() >= FUZZY_MIN_QUERY_LENGTH
+                && TermIndex.canLookUp(term)) {
+            try (Latency.Section s = Latency.start(Latency.SEARCH_FUZZY)) {
+                matches = withFuzzyMatches(termIndex, term, matches, maxResults, signal);
+            }
         }
-        if (offsets.size() > 0) {
-            score += 1.0 / offsets.get(0).offset();
+        List<Term> retVal;
+        try (Latency.Section s = Latency.start(Latency.SEARCH_LOAD_HTML)) {
+            retVal = Collections.unmodifiableList(loadTerms(matches, signal));
         }
-        return score;
+        cache.put(term, limit, maxResults, retVal);
+        return retVal;
     }
 
     /**
-     * Matches {@code ascify} in {@code db/normalize.py}.
+     * Runs the query behind {@code cursor}, which SQLite does when the cursor is first used, and
+     * returns the number of rows.
      */
-    @VisibleForTesting
-    static String normalizeQuery(String q) {
-        String term = q.toLowerCase().trim();
-        term = Normalizer.normalize(term, Normalizer.Form.NFKD);
-        term = term.replaceAll("[ðþ]", "th");
-        term = term.replaceAll("æ", "ae");
-        term = term.replaceAll("[^a-z ]", "");
-        term = term.replaceAll("  +", " ");
-        return term;
+    private static int execute(Cursor cursor) {
+        try (Latency.Section s = Latency.start(Latency.SEARCH_SQL)) {
+            return cursor.getCount();
+        }
     }
 
     /**
-     * See https://www.sqlite.org/fts3.html#offsets.
+     * Returns the best matches in {@code top}.
      */
-    @VisibleForTesting
-    static List<MatchOffset> parseOffsets(String offsets) {
-        String[] e = offsets.split(" ");
-        if (e.length % 4 != 0) {
-            throw new RuntimeException("could not parse offsets: " + offsets);
-        }
-        ArrayList<MatchOffset> ret = new ArrayList<>();
-        for (int i = 0; i < e.length; i += 4) {
-            MatchOffset off = MatchOffset.create(
-                    Integer.parseInt(e[i]),
-                    Integer.parseInt(e[i + 1]),
-                    Integer.parseInt(e[i + 2]),
-                    Integer.parseInt(e[i + 3]));
-            ret.add(off);
-        }
-        return ret;
-    }
-
-    private static Term queryMatchToTerm(String query, Cursor cursor) {
-        String title = cursor.getString(0);
-        String defnHtml = cursor.getString(1);
-        String conjHtml = cursor.getString(2);
-        String modE = cursor.getString(3);
-        int rowId = cursor.getInt(4);
-        String terms = cursor.getString(5);
-        String entryType = cursor.getString(6);
-        // The "terms" column is of the form "/form1/form2/.../" so if we see "/query/" then we got
-        // an exact term match.
-        boolean termMatch = terms.contains("/" + query + "/");
-        boolean modEngMatch = modE != null && modE.contains(query.toLowerCase());
-        boolean goodEntry = modE != null;
-        List<MatchOffset> offsets = parseOffsets(cursor.getString(7));
-        double score = scoreTerm(termMatch, modEngMatch, goodEntry, entryType, offsets);
-        return Term.create(title, defnHtml, conjHtml, modE, rowId, score);
-    }
-
-    private static void sortByDescendingScore(List<Term> terms) {
-        Collections.sort(terms, new Comparator<Term>() {
-            @Override
-            public int compare(Term t1, Term t2) {
-                return -1 * Double.compare(t1.score(), t2.score());
-            }
-        });
-    }
-
-    private static List<Term> removeLowScoringTerms(List<Term> terms) {
-        List<Term> retVal = new ArrayList<>();
-        for (Term t : terms) {
-            if (t.score() >= MINIMUM_SCORE) {
-                retVal.add(t);
+    private static List<Match> rank(TopMatches top) {
+        try (Latency.Section s = Latency.start(Latency.SEARCH_RANK)) {
+            return top.toList();
+        }
+    }
+
+    private static Row readRow(Cursor cursor) {
+        return new Row(cursor.getString(0), cursor.getString(1), cursor.getInt(2), cursor.getString(3), cursor.getString(4), cursor.getInt(6));
+    }
+
+    /**
+     * Runs {@link SearchCore#QRY} and returns the best {@code maxResults} matches in descending
+     * score order, remembering the rows that matched the prefix search in "terms" for
+     * {@link #narrowedSearch}.
+     */
+    private List<Match> fullSearch(String term, int limit, int maxResults, CancellationSignal signal) {
+        boolean phrase = SearchCore.isPhrase(term);
+        String[] args = new String[]{SearchCore.ftsQuery(term), String.valueOf(limit), term, term, QueryNormalizer.skeleton(term)};
+        TopMatches top = new TopMatches(maxResults);
+        List<Row> prefixRows = new ArrayList<>();
+        int firstLegCount = 0;
+        long scoreNanos = 0;
+        try (Cursor cursor = db.rawQuery(QRY, args, signal)) {
+            int count = execute(cursor);
+            Log.d("Dict", "Got " + count + " results for '" + term + "'");
+            try (Latency.Section s = Latency.start(Latency.SEARCH_ROWS)) {
+                while (cursor.moveToNext()) {
+                    Row row = readRow(cursor);
+                    long startNanos = System.nanoTime();
+                    top.add(scoreRow(term, row, firstMatchOffset(cursor.getString(5))));
+                    scoreNanos += System.nanoTime() - startNanos;
+                    if (row.leg == 1) {
+                        firstLegCount++;
+                        if (!phrase && firstTokenWithPrefix(row.terms, term) >= 0) {
+                            prefixRows.add(row);
+                        }
+                    }
+                }
             }
         }
-        return retVal;
+        Latency.record(Latency.SEARCH_SCORE, scoreNanos);
+        // If the LIMIT cut off the first query, there may be prefix matches we haven't seen.
+        boolean complete = !phrase && firstLegCount < limit;
+        narrowing = complete ? new NarrowingState(term, limit, prefixRows) : null;
+        return rank(top);
     }
 
-    private static List<Term> removeDuplicates(List<Term> terms) {
-        Set<String> seenTitles = new HashSet<>();
-        List<Term> retVal = new ArrayList<>();
-        for (Term t : terms) {
-            if (!seenTitles.contains(t.title())) {
-                seenTitles.add(t.title());
-                retVal.add(t);
+    /**
+     * Answers a query that extends {@code prev.query} by doing the (expensive) prefix search in
+     * "terms" over the rows in {@code prev}. See {@link #searchWithPrefixRows}.
+     */
+    private List<Match> narrowedSearch(NarrowingState prev, String term, int limit, int maxResults, CancellationSignal signal) {
+        List<Row> prefixRows = new ArrayList<>();
+        for (Row row : prev.prefixRows) {
+            if (firstTokenWithPrefix(row.terms, term) >= 0) {
+                prefixRows.add(row);
             }
         }
-        return retVal;
+        return searchWithPrefixRows(term, prefixRows, limit, maxResults, signal, "by narrowing '" + prev.query + "'");
     }
 
-    @Override
-    public void close() {
-        db.close();
+    /**
+     * Answers a one-word query by looking up the prefix matches in "terms" in {@code index}
+     * instead of with FTS, which has to expand the prefix to every matching word and merge their
+     * doclists. See {@link #searchWithPrefixRows}. Short prefixes can match thousands of rows, so
+     * if there are {@code limit} or more, we give up right away and let {@link #fullSearch} apply
+     * its LIMIT.
+     */
+    private List<Match> indexedSearch(TermIndex index, String term, int limit, int maxResults, CancellationSignal signal) {
+        List<Integer> nids = index.nidsWithPrefix(term, limit - 1);
+        if (nids == null) {
+            return null;
+        }
+        return searchWithPrefixRows(term, loadRows(nids, signal), limit, maxResults, signal, "with the term index");
     }
 
     /**
-     * Search the database for inflected terms or HTML phrases that match {@code query}. At most
-     * {@code limit} HTML phrase matches are considered. If there are any spaces in {@code query},
-     * we can't be matching a word, so we do a phrase search. If there are no spaces, we do a word
-     * search of "html" and a prefix search in "terms".
-     * <p>
-     * Returns a list of terms in descending score order.
+     * Loads the search columns of the rows with ids {@code nids}, in no particular order.
      */
-    List<Term> search(@NotNull String query, int limit) {
-        String term = normalizeQuery(query);
-        String ftsQuery = term.contains(" ") ? "\"" + term + "\"" : "html:" + term + " OR terms:" + term + "*";
-        String[] args = new String[]{ftsQuery, String.valueOf(limit), term, term};
+    private List<Row> loadRows(List<Integer> nids, CancellationSignal signal) {
+        List<Row> rows = new ArrayList<>();
+        for (int start = 0; start < nids.size(); start += MAX_SQL_PARAMETERS) {
+            int end = Math.min(nids.size(), start + MAX_SQL_PARAMETERS);
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                args[i - start] = String.valueOf(nids.get(i));
+            }
+            try (Cursor cursor = db.rawQuery(LOAD_ROWS + sqlParameterList(args.length), args, signal)) {
+                while (cursor.moveToNext()) {
+                    rows.add(new Row(cursor.getString(0), cursor.getString(1), cursor.getInt(2), cursor.getString(3), cursor.getString(4), 1));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns {@code matches} with the rows added that have a word in "terms" within one or two
+     * edits of {@code term} (e.g., "thritig" for "thrittig", or "swilc" for "swylce"), found with
+     * {@link TermIndex#wordsNear}. These score below matches of the query itself; see
+     * {@link SearchCore#scoreFuzzyRow}. The search for words stops after
+     * {@link #FUZZY_BUDGET_NANOS}, so this never adds much to a search that found little.
+     */
+    private List<Match> withFuzzyMatches(TermIndex index, String term, List<Match> matches, int maxResults, CancellationSignal signal) {
+        long startNanos = System.nanoTime();
+        // One edit is already a lot for short words.
+        int maxDistance = term.length() > FUZZY_MIN_QUERY_LENGTH ? 2 : 1;
+        List<TermIndex.Near> near = index.wordsNear(term, maxDistance, startNanos + FUZZY_BUDGET_NANOS);
+        Set<Integer> found = new HashSet<>();
+        for (Match m : matches) {
+            found.add(m.row.rowId);
+        }
+        // The closest word in each row, closest rows first.
+        Map<Integer, TermIndex.Near> nearByNid = new LinkedHashMap<>();
+        for (TermIndex.Near n : near) {
+            for (int nid : index.nids(n)) {
+                if (nearByNid.size() < FUZZY_MAX_ROWS && !found.contains(nid) && !nearByNid.containsKey(nid)) {
+                    nearByNid.put(nid, n);
+                }
+            }
+        }
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        TopMatches top = new TopMatches(maxResults);
+        for (Match m : matches) {
+            top.add(m);
+        }
+        for (Row row : loadRows(new ArrayList<>(nearByNid.keySet()), signal)) {
+            TermIndex.Near n = nearByNid.get(row.rowId);
+            top.add(SearchCore.scoreFuzzyRow(n.word, n.distance, row));
+        }
+        Log.d("Dict", "Added " + nearByNid.size() + " rows with " + near.size() + " words near '" + term + "' in "
+                + (System.nanoTime() - startNanos) / 1000 + "us");
+        return top.toList();
+    }
+
+    /**
+     * Answers a one-word query given {@code prefixRows}, every row that matches the prefix search
+     * "terms:term*", by running {@link SearchCore#QRY_WITHOUT_TERMS}, which only does the
+     * (cheap) word searches in "html" and "mod_e", and scoring the prefix matches in Java. Returns
+     * null if the results might differ from {@link #fullSearch}, which happens when the LIMIT
+     * would have cut off some rows.
+     */
+    private List<Match> searchWithPrefixRows(String term, List<Row> prefixRows, int limit, int maxResults, CancellationSignal signal, String how) {
+        if (prefixRows.size() >= limit) {
+            return null;
+        }
+        String[] args = new String[]{"html:" + term, String.valueOf(limit), term, QueryNormalizer.skeleton(term)};
+        TopMatches top = new TopMatches(maxResults);
+        Set<Integer> htmlMatches = new HashSet<>();
+        // Rows that matched "html" but have no offsets there. (offsets() tokenizes the stored HTML,
+        // not the normalized text that was indexed.)
+        Set<Integer> htmlMatchesWithoutOffsets = new HashSet<>();
+        long scoreNanos = 0;
+        try (Cursor cursor = db.rawQuery(QRY_WITHOUT_TERMS, args, signal)) {
+            int count = execute(cursor);
+            Log.d("Dict", "Got " + count + " results for '" + term + "' " + how);
+            try (Latency.Section s = Latency.start(Latency.SEARCH_ROWS)) {
+                while (cursor.moveToNext()) {
+                    Row row = readRow(cursor);
+                    int firstOffset = firstMatchOffset(cursor.getString(5));
+                    if (row.leg == 1) {
+                        htmlMatches.add(row.rowId);
+                        if (firstOffset < 0) {
+                            htmlMatchesWithoutOffsets.add(row.rowId);
+                        }
+                    }
+                    long startNanos = System.nanoTime();
+                    top.add(scoreRow(term, row, firstOffset));
+                    scoreNanos += System.nanoTime() - startNanos;
+                }
+            }
+        }
+        int firstLegCount = htmlMatches.size();
+        for (Row row : prefixRows) {
+            // In a full search, offsets() lists "html" matches before "terms" matches, so rows that
+            // also matched in "html" are already scored correctly unless they had no offsets there.
+            // In that case, the prefix match scores at least as high, so it replaces that one in `top`.
+            // The exact search in "terms" that QRY_WITHOUT_TERMS leaves out only finds rows that
+            // are in `prefixRows`, and scores them no higher than this does.
+            boolean htmlMatch = htmlMatches.contains(row.rowId);
+            if (htmlMatch && !htmlMatchesWithoutOffsets.contains(row.rowId)) {
+                continue;
+            }
+            top.add(scoreRow(term, row, firstTokenWithPrefix(row.terms, term)));
+            if (!htmlMatch) {
+                firstLegCount++;
+            }
+        }
+        if (firstLegCount >= limit) {
+            return null;
+        }
+        narrowing = new NarrowingState(term, limit, prefixRows);
+        return rank(top);
+    }
+
+    /**
+     * Turns matches into {@link Term}s by loading the start of their HTML, preserving the order.
+     */
+    private List<Term> loadTerms(List<Match> matches, CancellationSignal signal) {
+        Map<Integer, String> html = new HashMap<>();
+        for (int start = 0; start < matches.size(); start += MAX_SQL_PARAMETERS) {
+            int end = Math.min(matches.size(), start + MAX_SQL_PARAMETERS);
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                args[i - start] = String.valueOf(matches.get(i).row.rowId);
+            }
+            try (Cursor cursor = db.rawQuery(LOAD_HTML_PREVIEWS + sqlParameterList(args.length), args, signal)) {
+                while (cursor.moveToNext()) {
+                    html.put(cursor.getInt(0), cursor.getString(1));
+                }
+            }
+        }
+        List<Term> terms = new ArrayList<>();
+        for (Match m : matches) {
+            String h = html.get(m.row.rowId);
+            if (h != null) {
+                terms.add(Term.create(m.row.title, h, null, m.row.modE, m.row.rowId, m.score));
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Returns the terms in the database with the specified row ids, in the same order. Ids that
+     * don't exist (e.g., ones saved in the history before the dictionary was updated) are skipped.
+     * Unlike calling {@link #loadNid} for each id, this only runs one query for every
+     * {@link SearchCore#MAX_SQL_PARAMETERS} ids.
+     */
+    List<Term> loadNids(List<Integer> nids) {
+        Map<Integer, Term> terms = new HashMap<>();
+        for (int start = 0; start < nids.size(); start += MAX_SQL_PARAMETERS) {
+            int end = Math.min(nids.size(), start + MAX_SQL_PARAMETERS);
+            String[] args = new String[end - start];
+            for (int i = start; i < end; i++) {
+                args[i - start] = String.valueOf(nids.get(i));
+            }
+            try (Cursor cursor = db.rawQuery(LOAD_TERMS + sqlParameterList(args.length), args)) {
+                while (cursor.moveToNext()) {
+                    int nid = cursor.getInt(0);
+                    terms.put(nid, Term.create(cursor.getString(1), cursor.getString(2), cursor.getString(3), cursor.getString(4), nid, 0.0));
+                }
+            }
+        }
         List<Term> retVal = new ArrayList<>();
-        try (Cursor cursor = db.rawQuery(QRY, args)) {
-            Log.d("Dict", "Got " + cursor.getCount() + " results for '" + query + "'");
-            while (cursor.moveToNext()) {
-                retVal.add(queryMatchToTerm(term, cursor));
+        for (int nid : nids) {
+            Term t = terms.get(nid);
+            if (t != null) {
+                retVal.add(t);
             }
         }
-        sortByDescendingScore(retVal);
-        retVal = removeLowScoringTerms(retVal);
-        retVal = removeDuplicates(retVal);
         return retVal;
     }
 
     /**
-     * Returns the term in the database with the specified row id, or null if none exists.
+     * Returns the term in the database with the specified row id, or null if none exists. Terms
+     * loaded by {@link #prefetchNids} are returned without querying the database.
      */
     Term loadNid(int nid) {
+        Term cached = termCache.get(nid);
+        if (cached != null) {
+            return cached;
+        }
+        Term t = queryNid(nid);
+        if (t != null) {
+            termCache.put(t);
+        }
+        return t;
+    }
+
+    /**
+     * Loads {@code nids} into the cache used by {@link #loadNid}, one at a time, and returns the
+     * number loaded. This is for warming the cache in the background, so whenever a search is in
+     * progress, it waits for it to finish, and it stops early if {@code signal} is cancelled or
+     * the thread is interrupted. (A cancellation while it's waiting takes effect once the
+     * searches finish.)
+     */
+    int prefetchNids(List<Integer> nids, CancellationSignal signal) {
+        int loaded = 0;
+        for (int nid : nids) {
+            if (!awaitNoSearches() || signal.isCanceled()) {
+                break;
+            }
+            if (termCache.contains(nid)) {
+                continue;
+            }
+            Term t = queryNid(nid);
+            if (t != null) {
+                termCache.put(t);
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Waits until no search is in progress. Returns false if the thread was interrupted.
+     */
+    private boolean awaitNoSearches() {
+        synchronized (searchLock) {
+            try {
+                while (activeSearches > 0) {
+                    searchLock.wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private Term queryNid(int nid) {
         try (Cursor cursor = db.rawQuery("SELECT title, html, conj_html, mod_e FROM defn_idx WHERE rowid = ?", new String[]{String.valueOf(nid)})) {
             if (cursor.getCount() == 0) {
                 return null;
@@ -195,4 +530,27 @@ final class Dict implements AutoCloseable {
             return Term.create(title, defnHtml, conjHtml, modE, nid, 0.0);
         }
     }
+
+    /**
+     * Remembers every row that matches the prefix search "terms:query*" for a one-word query.
+     * We only keep this when the first leg of {@link SearchCore#QRY} was not cut off by its LIMIT, since
+     * otherwise we can't know that we have seen all the matching rows. Any query that extends
+     * {@code query} matches a subset of these rows in "terms".
+     */
+    private static final class NarrowingState {
+        final String query;
+        final int limit;
+        final List<Row> prefixRows;
+
+        NarrowingState(String query, int limit, List<Row> prefixRows) {
+            this.query = query;
+            this.limit = limit;
+            this.prefixRows = prefixRows;
+        }
+
+        boolean canNarrowTo(String newQuery, int newLimit) {
+            return newLimit == limit && !query.isEmpty() && newQuery.length() > query.length()
+                    && newQuery.startsWith(query) && !newQuery.contains(" ");
+        }
+    }
 }
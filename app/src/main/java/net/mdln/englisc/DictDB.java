@@ -6,17 +6,24 @@ import android.database.sqlite.SQLiteDatabase;
 import android.os.Build;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
 
 /**
  * A factory class for the SQLiteDatabase embedded as the "dictdb" resource. See the "get" method for details.
@@ -24,6 +31,10 @@ import java.util.concurrent.locks.ReentrantLock;
 final class DictDB {
     // This keeps us from interleaving expansions of resources.
     private static final ReentrantLock lock = new ReentrantLock();
+    private static final int BUFFER_SIZE = 1 << 20;
+    // Whether "dict.db" has been checked against (or copied from) the resources since the process
+    // started. Guarded by `lock`.
+    private static boolean upToDate = false;
 
     private DictDB() {
     }
@@ -37,16 +48,47 @@ final class DictDB {
         }
     }
 
-    private static void copyResourceToFile(Context ctx, int resourceId, File f) {
-        try (InputStream in = ctx.getResources().openRawResource(resourceId);
-             OutputStream out = new FileOutputStream(f)) {
-            pipe(in, out);
+    /**
+     * Copies a raw resource to {@code f}, decompressing it if it's gzipped, and returns the number
+     * of bytes written, or -1 if the copy failed. The data is written to a temporary file that is
+     * renamed to {@code f} once it's complete, so {@code f} is never left half-written.
+     */
+    private static long copyResourceToFile(Context ctx, @Nullable Activity errorActivity, int resourceId, File f) {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (InputStream in = maybeDecompress(ctx.getResources().openRawResource(resourceId));
+             FileOutputStream out = new FileOutputStream(tmp)) {
+            long n = pipe(in, out.getChannel());
+            out.getFD().sync();
+            if (!tmp.renameTo(f)) {
+                throw new IOException("could not rename " + tmp + " to " + f);
+            }
+            return n;
         } catch (IOException e) {
             Log.e("DictDB", "Error copying resource " + resourceId + " to " + f + ".", e);
-            if (ctx instanceof Activity) {  // Doesn't happen in unit tests.
-                errorAlert((Activity) ctx);
+            if (!tmp.delete()) {
+                Log.w("DictDB", "Could not delete " + tmp + ".");
             }
+            if (errorActivity != null) {  // Doesn't happen in unit tests.
+                errorAlert(errorActivity);
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Returns a stream of the decompressed contents of {@code in} if it is gzipped (as
+     * db/build_dict_db.sh does to "dictdb"), or of {@code in} itself otherwise.
+     */
+    private static InputStream maybeDecompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int b0 = buffered.read();
+        int b1 = buffered.read();
+        buffered.reset();
+        if (b0 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b1 == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
         }
+        return buffered;
     }
 
     private static void errorAlert(final Activity activity) {
@@ -59,16 +101,65 @@ final class DictDB {
                         .show());
     }
 
-    private static void pipe(InputStream in, OutputStream out) throws IOException {
-        final int bufSize = 8196;
-        byte[] buf = new byte[bufSize];
-        while (true) {
-            int n = in.read(buf);
-            if (n == -1) {
-                return;
+    private static long pipe(InputStream in, FileChannel out) throws IOException {
+        ReadableByteChannel src = Channels.newChannel(in);
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long total = 0;
+        while (src.read(buf) != -1) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                total += out.write(buf);
             }
-            out.write(buf, 0, n);
+            buf.clear();
+        }
+        return total;
+    }
+
+    /**
+     * Copies the "dictdb", "dictdb_terms" and "dictdb_rev" resources to "dict.db", "dict.terms"
+     * and "dict.rev". Returns false if that failed.
+     */
+    private static boolean copyDictionary(Context ctx, @Nullable Activity errorActivity, File dictDBPath, File termsPath, File revPath) {
+        long startCopyMillis = System.currentTimeMillis();
+        deleteExistingFiles(dictDBPath, termsPath, revPath);
+        long bytes = copyResourceToFile(ctx, errorActivity, R.raw.dictdb, dictDBPath);
+        // Only write "dict.rev" once the others are complete.
+        if (bytes < 0 || copyResourceToFile(ctx, errorActivity, R.raw.dictdb_terms, termsPath) < 0
+                || copyResourceToFile(ctx, errorActivity, R.raw.dictdb_rev, revPath) < 0) {
+            return false;
+        }
+        long copyMillis = System.currentTimeMillis() - startCopyMillis;
+        double mbPerSec = bytes / 1048576.0 / Math.max(copyMillis, 1) * 1000;
+        Log.i("DictDB", "Installed new dictionary at '" + dictDBPath + "' in " + copyMillis + "ms ("
+                + bytes + " bytes, " + String.format(Locale.ROOT, "%.1f", mbPerSec) + " MB/s).");
+        return true;
+    }
+
+    /**
+     * Tries to bring "dict.db" up to date by patching it with the "dictdb_delta" resource (see
+     * {@link DictDelta}), which is much faster than copying the whole database. Returns false if
+     * that isn't possible, in which case "dict.db" needs to be copied from scratch. "dict.terms"
+     * is small, so it's always copied. "dict.rev" is only updated once the patched database has
+     * been verified.
+     */
+    private static boolean applyDelta(Context ctx, @Nullable Activity errorActivity, File dictDBPath, File termsPath, File revPath) {
+        long startMillis = System.currentTimeMillis();
+        int pages;
+        try (InputStream patch = ctx.getResources().openRawResource(R.raw.dictdb_delta);
+             InputStream installedRev = new FileInputStream(revPath);
+             InputStream newRev = ctx.getResources().openRawResource(R.raw.dictdb_rev)) {
+            pages = DictDelta.apply(patch, dictDBPath, Streams.toByteArray(installedRev), Streams.toByteArray(newRev));
+        } catch (IOException e) {
+            Log.e("DictDB", "Could not patch '" + dictDBPath + "'; copying the whole dictionary.", e);
+            return false;
+        }
+        if (pages < 0 || copyResourceToFile(ctx, errorActivity, R.raw.dictdb_terms, termsPath) < 0
+                || copyResourceToFile(ctx, errorActivity, R.raw.dictdb_rev, revPath) < 0) {
+            return false;
         }
+        long millis = System.currentTimeMillis() - startMillis;
+        Log.i("DictDB", "Patched dictionary at '" + dictDBPath + "' in " + millis + "ms (" + pages + " pages).");
+        return true;
     }
 
     /**
@@ -80,31 +171,84 @@ final class DictDB {
      * We can't use "dictdb" directly because resources aren't files, and sqlite can only open
      * files. The database is around 71M, so we don't want to copy it every time, nor do we want to
      * hash it. We don't trust file modification times. So, we use a nonce in "dictdb_rev".
+     * <p>
+     * "dictdb" is gzipped by the build so that the APK isn't as big as the database. Both files
+     * are renamed into place once they're complete, and "dict.rev" is written after "dict.db", so
+     * if the app is killed during the copy, the next run starts over.
+     * <p>
+     * If the build includes a patch from the installed revision in "dictdb_delta", we apply that
+     * instead of copying everything. See {@link #applyDelta}.
+     * <p>
+     * The "dictdb_terms" resource is installed along with "dictdb" as "dict.terms". See
+     * {@link #getTermIndex}.
      */
     static SQLiteDatabase get(Context ctx) {
+        return get(ctx, ctx instanceof Activity ? (Activity) ctx : null);
+    }
+
+    /**
+     * Like {@link #get(Context)}, but if the dictionary can't be installed, the error is shown on
+     * {@code errorActivity} (if it isn't null) rather than on {@code ctx}, which can then be the
+     * application context.
+     */
+    static SQLiteDatabase get(Context ctx, @Nullable Activity errorActivity) {
         File dictDBPath = new File(ctx.getNoBackupFilesDir(), "dict.db");
+        File termsPath = termsPath(ctx);
         File revPath = new File(ctx.getNoBackupFilesDir(), "dict.rev");
         try {
             lock.lock();
-            if (!dictDBPath.canRead() || !revPath.canRead() || needsCopy(ctx, revPath)) {
-                long startCopyMillis = System.currentTimeMillis();
-                deleteExistingFiles(dictDBPath, revPath);
-                copyResourceToFile(ctx, R.raw.dictdb, dictDBPath);
-                copyResourceToFile(ctx, R.raw.dictdb_rev, revPath);
-                long copyMillis = System.currentTimeMillis() - startCopyMillis;
-                Log.i("DictDB", "Installed new dictionary at '" + dictDBPath + "' in " + copyMillis + "ms.");
+            // The resources can't change while the process is running, so once "dict.db" is up to
+            // date, we don't need to check again.
+            if (!upToDate) {
+                boolean installed = dictDBPath.canRead() && revPath.canRead();
+                try (Latency.Section s = Latency.start(Latency.DICTDB_CHECK_REV)) {
+                    upToDate = installed && !needsCopy(ctx, revPath);
+                }
+                if (!upToDate && installed) {
+                    try (Latency.Section s = Latency.start(Latency.DICTDB_PATCH)) {
+                        upToDate = applyDelta(ctx, errorActivity, dictDBPath, termsPath, revPath);
+                    }
+                }
+                if (!upToDate) {
+                    try (Latency.Section s = Latency.start(Latency.DICTDB_COPY)) {
+                        upToDate = copyDictionary(ctx, errorActivity, dictDBPath, termsPath, revPath);
+                    }
+                }
+            }
+            try (Latency.Section s = Latency.start(Latency.DICTDB_OPEN)) {
+                return SQLiteDatabase.openDatabase(dictDBPath.toString(), null, SQLiteDatabase.OPEN_READONLY);
             }
-            return SQLiteDatabase.openDatabase(dictDBPath.toString(), null, SQLiteDatabase.OPEN_READONLY);
         } finally {
             lock.unlock();
         }
     }
 
-    private static void deleteExistingFiles(File dictDBPath, File revPath) {
+    private static File termsPath(Context ctx) {
+        return new File(ctx.getNoBackupFilesDir(), "dict.terms");
+    }
+
+    /**
+     * Returns the {@link TermIndex} for the database returned by {@link #get}, which must have
+     * been called first, or null if it can't be opened. {@link Dict} works without it, just more
+     * slowly.
+     */
+    @Nullable
+    static TermIndex getTermIndex(Context ctx) {
+        File termsPath = termsPath(ctx);
+        try {
+            return TermIndex.open(termsPath);
+        } catch (IOException e) {
+            Log.e("DictDB", "Could not open '" + termsPath + "'.", e);
+            return null;
+        }
+    }
+
+    private static void deleteExistingFiles(File dictDBPath, File termsPath, File revPath) {
         // On older SDKs, we might take up more space while unpacking.
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             try {
                 Files.deleteIfExists(dictDBPath.toPath());
+                Files.deleteIfExists(termsPath.toPath());
                 Files.deleteIfExists(revPath.toPath());
             } catch (IOException e) {
                 Log.e("DictDB", "Could not delete existing file.", e);
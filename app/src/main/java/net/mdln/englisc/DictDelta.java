@@ -0,0 +1,108 @@
+package net.mdln.englisc;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Applies a patch made by {@code db/make_delta.py}, which lists the pages of the new dictionary
+ * database that differ from the previous release's. See that script for the format. This lets
+ * {@link DictDB} update "dict.db" in place instead of copying the whole database.
+ */
+final class DictDelta {
+    private static final byte[] MAGIC = {'B', 'T', 'C', 'D', 'E', 'L', 'T', '1'};
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private DictDelta() {
+    }
+
+    private static byte[] readRev(DataInputStream in) throws IOException {
+        byte[] rev = new byte[in.readUnsignedShort()];
+        in.readFully(rev);
+        return rev;
+    }
+
+    /**
+     * Patches {@code db} in place with the gzipped patch in {@code patch}, and returns the number
+     * of pages written. Returns -1 without touching {@code db} if there is no patch (the build
+     * ships an empty one when there's no previous release to patch from), or if it isn't a
+     * patch from {@code installedRev} to {@code newRev}.
+     * <p>
+     * Throws IOException if the patch can't be applied, including if the result doesn't match
+     * the checksum in the patch. In that case {@code db} may be partly patched and has to be
+     * replaced. Applying a patch to a database it has already been applied to, or partly applied
+     * to, gives the same result, so if the app is killed while patching, it's fine to try again.
+     */
+    static int apply(InputStream patch, File db, byte[] installedRev, byte[] newRev) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(patch);
+        int first = pushback.read();
+        if (first == -1) {
+            return -1;
+        }
+        pushback.unread(first);
+        DataInputStream in = new DataInputStream(new GZIPInputStream(pushback, BUFFER_SIZE));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a dictionary patch");
+        }
+        if (!Arrays.equals(readRev(in), installedRev) || !Arrays.equals(readRev(in), newRev)) {
+            return -1;
+        }
+        int pageSize = in.readInt();
+        long size = in.readLong();
+        byte[] expectedHash = new byte[32];
+        in.readFully(expectedHash);
+        int pages = in.readInt();
+        byte[] page = new byte[pageSize];
+        try (RandomAccessFile f = new RandomAccessFile(db, "rw")) {
+            FileChannel ch = f.getChannel();
+            for (int i = 0; i < pages; i++) {
+                long pageNo = in.readInt() & 0xffffffffL;
+                in.readFully(page);
+                ByteBuffer buf = ByteBuffer.wrap(page);
+                long pos = pageNo * pageSize;
+                while (buf.hasRemaining()) {
+                    pos += ch.write(buf, pos);
+                }
+            }
+            f.setLength(size);
+            ch.force(false);
+            if (!Arrays.equals(sha256(ch), expectedHash)) {
+                throw new IOException("patched dictionary does not match its checksum");
+            }
+        }
+        return pages;
+    }
+
+    private static byte[] sha256(FileChannel ch) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long pos = 0;
+        while (true) {
+            int n = ch.read(buf, pos);
+            if (n == -1) {
+                break;
+            }
+            pos += n;
+            buf.flip();
+            digest.update(buf);
+            buf.clear();
+        }
+        return digest.digest();
+    }
+}
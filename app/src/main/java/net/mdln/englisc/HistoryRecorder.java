@@ -0,0 +1,176 @@
+package net.mdln.englisc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records viewed terms in a {@link TermHistory} without making each view wait for a write.
+ * Views are queued in memory, with repeated views of the same term coalesced, and written in one
+ * transaction on a background thread when {@link #MAX_PENDING} terms are queued, a few seconds
+ * after the first one was queued, or when {@link #flush} is called (which activities do when they
+ * stop, i.e., when the app goes to the background). If the app crashes, at most the views queued
+ * since the last write are lost.
+ * <p>
+ * It also prunes the history; see {@link #maintainIfDue}. Reads go through it too (see
+ * {@link #getIds}), so that there's only one {@link TermHistory}, and so one connection to the
+ * database, in the process, and everything that touches it runs on the same thread.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class HistoryRecorder implements AutoCloseable {
+    private static final int MAX_PENDING = 16;
+    private static final long FLUSH_DELAY_MILLIS = 5000;
+    private static final long DAY_MILLIS = 24 * 3600 * 1000;
+    private static final long MAX_AGE_MILLIS = 10 * DAY_MILLIS;
+    private static final int MAX_TERMS = 1000;
+    private static final String PREFS = "history";
+    private static final String PREF_LAST_MAINTENANCE = "last_maintenance_millis";
+    // Guarded by HistoryRecorder.class.
+    private static HistoryRecorder instance = null;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    // Only used on `executor`.
+    private final TermHistory history;
+    // The views of each nid since the last write. Guarded by `this`.
+    private Map<Integer, TermHistory.View> pending = new HashMap<>();
+    // Guarded by `this`.
+    private ScheduledFuture<?> scheduledFlush = null;
+
+    HistoryRecorder(TermHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Returns the recorder for the on-disk history, which lasts as long as the process, so it's
+     * never closed.
+     */
+    static synchronized HistoryRecorder get(Context ctx) {
+        if (instance == null) {
+            // Opening the database is deferred until the first write.
+            instance = new HistoryRecorder(new TermHistory(ctx.getApplicationContext(), TermHistory.Location.ON_DISK));
+        }
+        return instance;
+    }
+
+    /**
+     * Queue a view of {@code nid} at {@code timeMillis}.
+     */
+    void record(int nid, long timeMillis) {
+        boolean full;
+        synchronized (this) {
+            TermHistory.View prev = pending.get(nid);
+            if (prev == null) {
+                pending.put(nid, new TermHistory.View(nid, timeMillis, 1));
+            } else {
+                pending.put(nid, new TermHistory.View(nid, Math.max(prev.timeMillis, timeMillis), prev.count + 1));
+            }
+            full = pending.size() >= MAX_PENDING;
+            if (!full && scheduledFlush == null) {
+                scheduledFlush = executor.schedule(this::writePending, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the queued views on the background thread now. The returned future is done once
+     * they're written.
+     */
+    Future<?> flush() {
+        return executor.submit(this::writePending);
+    }
+
+    /**
+     * Write the queued views and wait for them to be written, so that reading the history gives
+     * up-to-date results. Don't call this on the UI thread.
+     */
+    void flushAndWait() {
+        try {
+            flush().get();
+        } catch (ExecutionException | InterruptedException e) {
+            Log.e("HistoryRecorder", "Can't write the history.", e);
+        }
+    }
+
+    /**
+     * Write the queued views and return the {@code limit} most recently viewed nids, most recent
+     * first, or an empty list if the history can't be read. This waits for the background thread,
+     * so don't call it on the UI thread.
+     */
+    List<Integer> getIds(final int limit) {
+        try {
+            return executor.submit(() -> {
+                writePending();
+                return history.getIds(limit);
+            }).get();
+        } catch (ExecutionException | InterruptedException e) {
+            Log.e("HistoryRecorder", "Can't read the history.", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Write the queued views, wait for them to be written, and stop the background thread. The
+     * recorder can't be used afterwards. Don't call this on the UI thread.
+     */
+    @Override
+    public void close() {
+        flushAndWait();
+        executor.shutdown();
+    }
+
+    /**
+     * On the background thread, delete terms viewed more than ten days ago and all but the
+     * {@link #MAX_TERMS} most recent ones, unless that has been done in the last day.
+     */
+    void maintainIfDue(Context ctx) {
+        final SharedPreferences prefs = ctx.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        executor.execute(() -> {
+            long now = System.currentTimeMillis();
+            long last = prefs.getLong(PREF_LAST_MAINTENANCE, 0);
+            // If the clock went backwards, run it anyway.
+            if (last <= now && now - last < DAY_MILLIS) {
+                return;
+            }
+            writePending();
+            try {
+                int deleted = history.prune(now - MAX_AGE_MILLIS, MAX_TERMS);
+                Log.i("HistoryRecorder", "Pruned " + deleted + " terms from the history in "
+                        + (System.currentTimeMillis() - now) + "ms.");
+                prefs.edit().putLong(PREF_LAST_MAINTENANCE, now).apply();
+            } catch (RuntimeException e) {
+                // E.g., the database was busy. We'll try again next time.
+                Log.e("HistoryRecorder", "Can't prune the history.", e);
+            }
+        });
+    }
+
+    private void writePending() {
+        Map<Integer, TermHistory.View> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new HashMap<>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        if (!batch.isEmpty()) {
+            history.recordViews(batch.values());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package net.mdln.englisc;
+
+import android.os.Trace;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measures how long the phases of searching and showing definitions take. Each phase is a
+ * {@link Trace} section, so it shows up in system traces, and its duration is kept in a rolling
+ * window of the last {@link #WINDOW_SIZE} measurements, which {@link #summary} reports as
+ * percentiles. {@link MenuHandler} shows that in a debug menu item and can include it in
+ * feedback.
+ * <p>
+ * Use it like this, on one thread, since trace sections have to end on the thread that began
+ * them:
+ * <pre>
+ *     try (Latency.Section s = Latency.start(Latency.SEARCH_SQL)) {
+ *         ...
+ *     }
+ * </pre>
+ */
+final class Latency {
+    static final String SEARCH = "search";
+    static final String SEARCH_NORMALIZE = "search.normalize";
+    static final String SEARCH_SQL = "search.sql";
+    // Reading the rows from the cursor and scoring them.
+    static final String SEARCH_ROWS = "search.rows";
+    // The part of SEARCH_ROWS spent scoring rows and keeping the best one for each title. It's
+    // added up over the rows, so there's no trace section for it.
+    static final String SEARCH_SCORE = "search.score";
+    static final String SEARCH_RANK = "search.rank";
+    static final String SEARCH_LOAD_HTML = "search.load_html";
+    static final String SEARCH_FUZZY = "search.fuzzy";
+    static final String DICTDB_CHECK_REV = "dictdb.check_rev";
+    static final String DICTDB_PATCH = "dictdb.patch";
+    static final String DICTDB_COPY = "dictdb.copy";
+    static final String DICTDB_OPEN = "dictdb.open";
+    static final String LAZYDICT_WAIT = "lazydict.wait";
+    static final String WEBVIEW_STYLE = "webview.style";
+    static final String WEBVIEW_LOAD = "webview.load";
+
+    @VisibleForTesting
+    static final int WINDOW_SIZE = 256;
+    // The window for each phase, by name. Guarded by Latency.class.
+    private static final Map<String, Window> windows = new TreeMap<>();
+
+    private Latency() {
+    }
+
+    /**
+     * Begins a trace section for {@code phase}. Closing the section ends it and records its
+     * duration.
+     */
+    static Section start(String phase) {
+        Trace.beginSection(phase);
+        return new Section(phase, System.nanoTime());
+    }
+
+    /**
+     * Records that {@code phase} took {@code nanos}, without a trace section.
+     */
+    static synchronized void record(String phase, long nanos) {
+        Window w = windows.get(phase);
+        if (w == null) {
+            w = new Window();
+            windows.put(phase, w);
+        }
+        w.add(nanos);
+    }
+
+    /**
+     * Returns the 50th, 95th and 99th percentiles, in milliseconds, of the recent durations of
+     * each phase that has been measured, one phase per line.
+     */
+    static synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Window> e : windows.entrySet()) {
+            long[] sorted = e.getValue().sorted();
+            sb.append(String.format(Locale.ROOT, "%s: n=%d p50=%.2fms p95=%.2fms p99=%.2fms\n", e.getKey(), sorted.length,
+                    percentile(sorted, 50) / 1e6, percentile(sorted, 95) / 1e6, percentile(sorted, 99) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the {@code p}th percentile of {@code sorted}, which must not be empty, by the
+     * nearest-rank method.
+     */
+    @VisibleForTesting
+    static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    @VisibleForTesting
+    static synchronized void reset() {
+        windows.clear();
+    }
+
+    /**
+     * A trace section that is also timed. See {@link #start}.
+     */
+    static final class Section implements AutoCloseable {
+        private final String phase;
+        private final long startNanos;
+
+        private Section(String phase, long startNanos) {
+            this.phase = phase;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            Trace.endSection();
+            record(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * The last {@link #WINDOW_SIZE} durations of a phase, in a ring buffer.
+     */
+    private static final class Window {
+        private final long[] nanos = new long[WINDOW_SIZE];
+        private int count = 0;
+        private int next = 0;
+
+        void add(long n) {
+            nanos[next] = n;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        long[] sorted() {
+            long[] s = Arrays.copyOf(nanos, count);
+            Arrays.sort(s);
+            return s;
+        }
+    }
+}
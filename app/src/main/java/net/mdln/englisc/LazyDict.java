@@ -1,8 +1,10 @@
 package net.mdln.englisc;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
 
+import java.lang.ref.WeakReference;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -13,30 +15,88 @@ import java.util.concurrent.Future;
  * so when this object is created, start a background task to do that if necessary. Callers
  * can then call {@link #get} (when not on the UI thread) to get a {@link Dict}, blocking if it
  * is not ready yet.
+ * <p>
+ * All the LazyDicts in the process share one {@link Dict}, so following links from one
+ * {@link DefnActivity} to the next doesn't open the database again. It is reference-counted:
+ * it's opened by the first LazyDict and closed when the last one is closed.
  */
 class LazyDict implements AutoCloseable {
+    // The shared Dict, and the number of open LazyDicts using it. Guarded by LazyDict.class.
+    private static Future<Dict> shared = null;
+    private static int refCount = 0;
+
     private final Future<Dict> dict;
+    private boolean closed = false;
+
+    LazyDict(Context ctx) {
+        dict = acquire(ctx);
+    }
 
-    @SuppressLint("StaticFieldLeak")
-    LazyDict(final Activity activity) {
-        ExecutorService ex = Executors.newSingleThreadExecutor();
-        dict = ex.submit(() -> new Dict(DictDB.get(activity)));
-        ex.shutdown();
+    private static synchronized Future<Dict> acquire(Context ctx) {
+        if (refCount++ == 0) {
+            // The shared Dict can outlive the activity that opened it, so it mustn't hold on to it.
+            // The activity is only needed to show an error if the dictionary can't be installed.
+            final Context appCtx = ctx.getApplicationContext();
+            final WeakReference<Activity> errorActivity = new WeakReference<>(ctx instanceof Activity ? (Activity) ctx : null);
+            ExecutorService ex = Executors.newSingleThreadExecutor();
+            shared = ex.submit(() -> {
+                SQLiteDatabase db = DictDB.get(appCtx, errorActivity.get());
+                return new Dict(db, DictDB.getTermIndex(appCtx));
+            });
+            ex.shutdown();
+        }
+        return shared;
     }
 
     /**
-     * Get a {@link Dict}, blocking if it's not ready yet.
+     * Returns true if {@code f} was the shared Dict and this was its last user, so it should be
+     * closed.
      */
-    Dict get() {
-        try {
-            return dict.get();
+    private static synchronized boolean release(Future<Dict> f) {
+        if (f != shared || --refCount > 0) {
+            return false;
+        }
+        shared = null;
+        return true;
+    }
+
+    private static Dict get(Future<Dict> f) {
+        try (Latency.Section s = Latency.start(Latency.LAZYDICT_WAIT)) {
+            return f.get();
         } catch (ExecutionException | InterruptedException e) {
             throw new RuntimeException("Can't create dictionary in background.", e);
         }
     }
 
+    /**
+     * Get a {@link Dict}, blocking if it's not ready yet.
+     */
+    Dict get() {
+        return get(dict);
+    }
+
+    /**
+     * Forward {@link android.content.ComponentCallbacks2#onTrimMemory} to the {@link Dict}. This
+     * never blocks: if the dictionary isn't ready yet, it has nothing to release.
+     */
+    void onTrimMemory(int level) {
+        if (dict.isDone()) {
+            get().onTrimMemory(level);
+        }
+    }
+
+    /**
+     * Stop using the {@link Dict}. It's closed if nothing else is using it. Calling this more than
+     * once has no effect.
+     */
     @Override
-    public void close() {
-        get().close();
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (release(dict)) {
+            get().close();
+        }
     }
 }
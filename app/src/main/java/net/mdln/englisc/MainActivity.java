@@ -1,6 +1,8 @@
 package net.mdln.englisc;
 
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -13,23 +15,22 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
-    // `readySemaphore` is has one permit when `dict` and `history` are valid but not in active use.
+    private static final long SEARCH_DEBOUNCE_MILLIS = 100;
+    // Short prefixes can match hundreds of entries, but nobody scrolls that far, and each result
+    // holds a whole definition.
+    private static final int MAX_SEARCH_RESULTS = 100;
+    // `readySemaphore` is has one permit when `dict` is valid but not in active use.
     // This way, `onDestroy` can wait to close them if they're in use by `getTerms` on another thread.
     private final Semaphore readySemaphore = new Semaphore(0);
     private LazyDict dict = null;
     private ResultsAdapter results = null;
     private SearchView searchBox = null;
-    private TermHistory history = null;
-    private boolean synchronousSearches = false;
+    private SearchScheduler searches = null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,16 +46,16 @@ public class MainActivity extends AppCompatActivity {
         rv.setLayoutManager(new LinearLayoutManager(this));
 
         dict = new LazyDict(this);
-        long tenDaysAgoMillis = System.currentTimeMillis() - 10 * 24 * 3600 * 1000;
-        history = new TermHistory(this, TermHistory.Location.ON_DISK, tenDaysAgoMillis);
+        HistoryRecorder.get(this).maintainIfDue(this);
+        searches = new SearchScheduler(this::getTerms, this::showResults);
 
         searchBox.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @Override
             public boolean onQueryTextChange(String text) {
                 // Hide the help text when there is a query, so that it doesn't steal useful screen real estate.
                 findViewById(R.id.mainHelpView).setVisibility(text.equals("") ? View.VISIBLE : View.GONE);
-                // Only hit the database off the UI thread.
-                searchInBackground();
+                // Only hit the database off the UI thread. Wait a moment in case the user is still typing.
+                searchInBackground(SEARCH_DEBOUNCE_MILLIS);
                 return true;
             }
 
@@ -68,14 +69,13 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onDestroy() {
+        searches.shutdown();
+        results.shutdown();
         // Wait for all pending searches to complete so that they don't use closed resources.
         readySemaphore.acquireUninterruptibly();
         if (dict != null) {
             dict.close();
         }
-        if (history != null) {
-            history.close();
-        }
         super.onDestroy();
     }
 
@@ -83,12 +83,27 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         searchBox.requestFocus();
-        searchInBackground();  // to update terms from the history, if necessary
+        searchInBackground(0);  // to update terms from the history, if necessary
+    }
+
+    @Override
+    protected void onStop() {
+        HistoryRecorder.get(this).flush();
+        super.onStop();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (dict != null) {
+            dict.onTrimMemory(level);
+        }
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        MenuHandler.showDebugItems(menu);
         return true;
     }
 
@@ -101,67 +116,61 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void searchInBackground() {
+    /**
+     * Search for the current contents of the search box (or show the history, if it's empty) on
+     * the {@link SearchScheduler}'s thread after {@code delayMillis}.
+     */
+    private void searchInBackground(long delayMillis) {
         // Get this on the UI thread because SearchView.getQuery is not thread-safe.
-        final String qry = searchBox.getQuery().toString();
-        ExecutorService ex = Executors.newSingleThreadExecutor();
-        ex.submit(new Runnable() {
-            private List<Term> getTerms() {
-                // running off the UI thread
-                if (qry.length() >= 2) {
-                    return dict.get().search(qry, 50);
-                } else if (qry.length() == 0) {
-                    return historyTerms();
-                } else {
-                    return Collections.emptyList();
-                }
-            }
+        searches.schedule(searchBox.getQuery().toString(), delayMillis);
+    }
 
-            @Override
-            public void run() {
-                boolean wasReady = readySemaphore.tryAcquire();
-                if (!wasReady) {
-                    Log.w("MainActivity", "Aborting search because Activity was not ready.");
-                    return;
-                }
-                final List<Term> t;
-                try {
-                    t = getTerms();
-                } catch (Exception e) {
-                    Log.e("MainActivity", "Exception searching in the background.", e);
-                    return;
-                } finally {
-                    readySemaphore.release();
-                }
-                runOnUiThread(() -> {
-                    results.setTerms(t);
-                    // Show or hide the "recent:" label.
-                    String q = ((SearchView) findViewById(R.id.search_box)).getQuery().toString();
-                    boolean historyActive = q.equals("") && results.getItemCount() > 0;
-                    findViewById(R.id.recentLabel).setVisibility(historyActive ? View.VISIBLE : View.GONE);
-                });
-            }
-        });
-        ex.shutdown();
-        if (synchronousSearches) {
-            try {
-                ex.awaitTermination(30, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+    /**
+     * Runs off the UI thread. Returns null if we can't search right now.
+     */
+    private List<Term> getTerms(String qry, CancellationSignal signal) {
+        boolean wasReady = readySemaphore.tryAcquire();
+        if (!wasReady) {
+            Log.w("MainActivity", "Aborting search because Activity was not ready.");
+            return null;
+        }
+        try {
+            List<Term> terms;
+            if (qry.length() >= 2) {
+                terms = dict.get().search(qry, 50, MAX_SEARCH_RESULTS, signal);
+            } else if (qry.length() == 0) {
+                terms = historyTerms();
+            } else {
+                terms = Collections.emptyList();
             }
+            // Parse the rows' HTML here rather than on the UI thread.
+            results.prepare(terms);
+            return terms;
+        } catch (OperationCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            Log.e("MainActivity", "Exception searching in the background.", e);
+            return null;
+        } finally {
+            readySemaphore.release();
         }
     }
 
+    private void showResults(String qry, List<Term> t) {
+        results.setTerms(t);
+        // Show or hide the "recent:" label. (The adapter may not have the new terms yet.)
+        boolean historyActive = qry.equals("") && !t.isEmpty();
+        findViewById(R.id.recentLabel).setVisibility(historyActive ? View.VISIBLE : View.GONE);
+    }
+
     private List<Term> historyTerms() {
         final int numHistoryTermsToShow = 20;
-        List<Term> terms = new ArrayList<>();
-        for (int nid : history.getIds(numHistoryTermsToShow)) {
-            terms.add(dict.get().loadNid(nid));
-        }
-        return terms;
+        // This includes the terms viewed most recently, even if they haven't been written yet.
+        return dict.get().loadNids(HistoryRecorder.get(this).getIds(numHistoryTermsToShow));
     }
 
     void setSynchronousSearches(boolean s) {
-        synchronousSearches = s;
+        searches.setSynchronous(s);
+        results.setSynchronous(s);
     }
 }
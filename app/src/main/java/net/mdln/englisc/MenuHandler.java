@@ -5,8 +5,11 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 
+import androidx.appcompat.app.AlertDialog;
+
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -20,6 +23,13 @@ final class MenuHandler {
         this.activity = activity;
     }
 
+    /**
+     * Shows the items in {@code menu} that are only for debug builds, if this is one.
+     */
+    static void showDebugItems(Menu menu) {
+        menu.findItem(R.id.main_menu_latency).setVisible(BuildConfig.DEBUG);
+    }
+
     /**
      * Returns true if the item was successfully handled.
      */
@@ -42,6 +52,9 @@ final class MenuHandler {
             case R.id.main_menu_conj:
                 setDefnMode(DefnActivity.Mode.CONJ);
                 return true;
+            case R.id.main_menu_latency:
+                showLatency(contextString);
+                return true;
             default:
                 return false;
         }
@@ -68,6 +81,20 @@ final class MenuHandler {
         activity.startActivity(emailIntent);
     }
 
+    /**
+     * Shows the percentiles from {@link Latency#summary}, with a button to send them as feedback.
+     */
+    private void showLatency(String contextString) {
+        String summary = Latency.summary();
+        new AlertDialog.Builder(activity)
+                .setTitle(R.string.latency_stats)
+                .setMessage(summary.isEmpty() ? activity.getString(R.string.latency_empty) : summary)
+                .setPositiveButton(R.string.latency_send, (dialog, which) -> sendFeedback(contextString + "\n\n" + summary))
+                .setNegativeButton(R.string.latency_close, null)
+                .create()
+                .show();
+    }
+
     private void findInDefn() {
         if (!(activity instanceof DefnActivity)) {
             Log.e("MenuHandler", "findInDefn called when the activity is not a DefnActivity.");
@@ -0,0 +1,146 @@
+package net.mdln.englisc;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Normalizes search queries the same way {@code ascify} in {@code db/normalize.py} normalizes
+ * the terms in the database: lowercase, decompose, fold "æ" to "ae", "ð"/"þ" to "th" and "ȝ" to
+ * "g", drop everything but letters and spaces, collapse runs of spaces, and trim.
+ * <p>
+ * This runs on every keystroke, so instead of a chain of regular expressions, it makes one pass
+ * over the query using a table of what each character folds to. The table is built when the
+ * class is loaded by applying the same steps as {@code ascify} to each character; characters
+ * outside it are folded the same way, just more slowly. The test cases in
+ * {@code db/testdata/ascify-cases.jsonl} are checked against both implementations.
+ */
+final class QueryNormalizer {
+    // Covers ASCII, Latin-1, and Latin Extended-A and -B, which includes all the Old English
+    // letters with macrons, acutes, and so on, plus æ, ð, þ, and ȝ.
+    private static final int TABLE_SIZE = 0x250;
+    private static final String[] TABLE = new String[TABLE_SIZE];
+
+    static {
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            TABLE[c] = fold(c);
+        }
+    }
+
+    private QueryNormalizer() {
+    }
+
+    /**
+     * Returns what {@code ascify} would make of the single code point {@code cp}, before spaces are
+     * collapsed. The result only contains lowercase ASCII letters and spaces.
+     */
+    private static String fold(int cp) {
+        String s = new String(Character.toChars(cp)).toLowerCase(Locale.ROOT);
+        s = Normalizer.normalize(s, Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == 'æ') {
+                sb.append("ae");
+            } else if (c == 'ð' || c == 'þ') {
+                sb.append("th");
+            } else if (c == 'ȝ') {
+                sb.append('g');
+            } else if ((c >= 'a' && c <= 'z') || c == ' ') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * True if {@code q} is already normalized, which is the usual case when the user types in
+     * lowercase without accents.
+     */
+    private static boolean isNormalized(String q) {
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c == ' ') {
+                if (i == 0 || i == q.length() - 1 || q.charAt(i - 1) == ' ') {
+                    return false;
+                }
+            } else if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String normalize(String q) {
+        if (isNormalized(q)) {
+            return q;
+        }
+        StringBuilder sb = new StringBuilder(q.length() + 8);
+        // We only write a space when a letter follows it, which trims and collapses spaces.
+        boolean pendingSpace = false;
+        for (int i = 0; i < q.length(); ) {
+            int cp = q.codePointAt(i);
+            i += Character.charCount(cp);
+            String folded = cp < TABLE_SIZE ? TABLE[cp] : fold(cp);
+            for (int j = 0; j < folded.length(); j++) {
+                char c = folded.charAt(j);
+                if (c == ' ') {
+                    pendingSpace = sb.length() > 0;
+                } else {
+                    if (pendingSpace) {
+                        sb.append(' ');
+                        pendingSpace = false;
+                    }
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * True if {@code s} has "h", or "l" or "r" and another consonant, at {@code i}, where "ea",
+     * "e" and "a" alternate.
+     */
+    private static boolean alternatesBefore(String s, int i) {
+        if (i >= s.length()) {
+            return false;
+        }
+        char c = s.charAt(i);
+        return c == 'h' || ((c == 'l' || c == 'r') && i + 1 < s.length() && isConsonant(s.charAt(i + 1)));
+    }
+
+    private static boolean isConsonant(char c) {
+        return c >= 'a' && c <= 'z' && c != 'a' && c != 'e' && c != 'i' && c != 'o' && c != 'u';
+    }
+
+    /**
+     * Returns the "skeleton" of {@code normalized}, an output of {@link #normalize}, which
+     * collapses common Old English spelling variants: same as {@code skeleton} in
+     * {@code db/normalize.py}, which explains the steps. The test cases in
+     * {@code db/testdata/skeleton-cases.jsonl} are checked against both implementations.
+     */
+    static String skeleton(String normalized) {
+        String s = normalized.replace("ie", "i").replace('y', 'i').replace('k', 'c');
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == 'e' && i + 1 < s.length() && s.charAt(i + 1) == 'a' && alternatesBefore(s, i + 2)) {
+                sb.append('a');
+                i++;
+            } else if ((c == 'e' || c == 'a') && alternatesBefore(s, i + 1)) {
+                sb.append('a');
+            } else {
+                sb.append(c);
+            }
+        }
+        s = sb.toString();
+        sb.setLength(0);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!(isConsonant(c) && i > 0 && s.charAt(i - 1) == c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
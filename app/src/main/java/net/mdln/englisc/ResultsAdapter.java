@@ -1,6 +1,5 @@
 package net.mdln.englisc;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
 import android.view.LayoutInflater;
@@ -9,53 +8,116 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.core.text.HtmlCompat;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Represents a list of results in the search-results RecyclerView owned by {@link MainActivity}.
  * {@link MainActivity} will call {@link #setTerms} when the results need to be updated.
+ * <p>
+ * Successive results usually share most of their rows, so instead of rebinding every row, we
+ * diff the new list against the old one on a background thread and only notify the
+ * RecyclerView about the rows that changed. If new results arrive while a diff is running, the
+ * old diff's result is dropped.
  */
 final class ResultsAdapter extends RecyclerView.Adapter<ResultsAdapter.ViewHolder> {
 
-    private List<Term> terms = Collections.emptyList();
+    // A row's text only depends on its nid, so it needs to be rebound only if it moves, which
+    // the diff detects from its position, or its score changes.
+    private static final DiffUtil.ItemCallback<Term> DIFF_BY_NID = new DiffUtil.ItemCallback<Term>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Term oldItem, @NonNull Term newItem) {
+            return oldItem.nid() == newItem.nid();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Term oldItem, @NonNull Term newItem) {
+            return oldItem.score() == newItem.score();
+        }
+    };
+
+    // Enough for the search results and the history.
+    private static final int ROW_TEXT_CACHE_ENTRIES = 256;
+
+    private final RowText rowText = new RowText(ROW_TEXT_CACHE_ENTRIES);
+    private final ExecutorService diffThread = Executors.newSingleThreadExecutor();
+    // Only accessed on the UI thread.
+    private boolean synchronous = false;
+    private final AsyncListDiffer<Term> differ;
 
     ResultsAdapter() {
         // Search result rows are uniquely identified by Term.nid.
         setHasStableIds(true);
+        Executor executor = r -> {
+            if (synchronous) {
+                r.run();
+            } else {
+                diffThread.execute(r);
+            }
+        };
+        differ = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(DIFF_BY_NID).setBackgroundThreadExecutor(executor).build());
     }
 
-    @SuppressLint("NotifyDataSetChanged")
-    void setTerms(Collection<Term> terms) {
-        this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
-        notifyDataSetChanged();
+    /**
+     * Build the text of the rows for {@code terms} ahead of time, so that binding them on the UI
+     * thread is cheap. This can be called on any thread.
+     */
+    void prepare(List<Term> terms) {
+        rowText.prepare(terms);
+    }
+
+    /**
+     * Show {@code terms}. The RecyclerView is updated once the diff is done.
+     */
+    void setTerms(List<Term> terms) {
+        differ.submitList(new ArrayList<>(terms));
+    }
+
+    /**
+     * If true, diff on the UI thread, so that tests don't have to wait for the background thread.
+     * (The RecyclerView is still updated in a later message on the UI thread.)
+     */
+    void setSynchronous(boolean s) {
+        synchronous = s;
+    }
+
+    /**
+     * Stop the background thread.
+     */
+    void shutdown() {
+        diffThread.shutdown();
     }
 
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         final Context ctx = parent.getContext();
-        return new ViewHolder(ctx, LayoutInflater.from(ctx).inflate(R.layout.results_row, parent, false));
+        return new ViewHolder(ctx, LayoutInflater.from(ctx).inflate(R.layout.results_row, parent, false), rowText);
     }
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        holder.setTerm(terms.get(position));
+        holder.setTerm(differ.getCurrentList().get(position));
     }
 
     @Override
     public int getItemCount() {
-        return terms.size();
+        return differ.getCurrentList().size();
     }
 
     @Override
     public long getItemId(int item) {
-        return terms.get(item).nid();
+        return differ.getCurrentList().get(item).nid();
     }
 
     /**
@@ -63,23 +125,19 @@ final class ResultsAdapter extends RecyclerView.Adapter<ResultsAdapter.ViewHolde
      */
     static class ViewHolder extends RecyclerView.ViewHolder {
         private final TextView view;
+        private final RowText rowText;
         private Term term = null;
 
-        ViewHolder(final Context ctx, View itemView) {
+        ViewHolder(final Context ctx, View itemView, RowText rowText) {
             super(itemView);
+            this.rowText = rowText;
             view = itemView.findViewById(R.id.results_row);
             view.setOnClickListener(v -> openFullDefinition(ctx));
         }
 
         void setTerm(Term term) {
             this.term = term;
-            final String html;
-            if (term.modE() == null) {
-                html = Term.unlinkifyTermHtml(term.defnHtml());
-            } else {
-                html = "<b>" + term.title() + "</b>; " + term.modE();
-            }
-            view.setText(HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT));
+            view.setText(rowText.get(term));
         }
 
         private void openFullDefinition(Context ctx) {
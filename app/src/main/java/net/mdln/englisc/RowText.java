@@ -0,0 +1,85 @@
+package net.mdln.englisc;
+
+import android.util.LruCache;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.core.text.HtmlCompat;
+
+import java.util.List;
+
+/**
+ * Builds and caches the text of the rows in {@link ResultsAdapter}. Parsing a whole definition's
+ * HTML is slow for long entries, and a row is a single line, so we only parse the start of it.
+ * The text for a term only depends on its nid, so it's cached by nid, and {@link #prepare} lets
+ * us build it on the search thread, before the results reach the UI thread.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class RowText {
+    // More than a single line can show, even on a tablet in landscape.
+    @VisibleForTesting
+    static final int MAX_CHARS = 300;
+    // Markup and entities take up space in the HTML that isn't shown, so we parse more than
+    // MAX_CHARS of it. This has to be less than SearchCore.PREVIEW_HTML_CHARS.
+    @VisibleForTesting
+    static final int MAX_HTML_CHARS = 4 * MAX_CHARS;
+
+    private final LruCache<Integer, CharSequence> cache;
+
+    RowText(int maxEntries) {
+        cache = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * Returns the text for {@code t}'s row, building it if necessary.
+     */
+    CharSequence get(Term t) {
+        CharSequence text = cache.get(t.nid());
+        if (text == null) {
+            text = build(t);
+            cache.put(t.nid(), text);
+        }
+        return text;
+    }
+
+    /**
+     * Builds the text for all of {@code terms} that aren't cached yet.
+     */
+    void prepare(List<Term> terms) {
+        for (Term t : terms) {
+            get(t);
+        }
+    }
+
+    private static CharSequence build(Term t) {
+        final String html;
+        if (t.modE() == null) {
+            html = Term.unlinkifyTermHtml(truncateHtml(t.defnHtml(), MAX_HTML_CHARS));
+        } else {
+            html = "<b>" + t.title() + "</b>; " + t.modE();
+        }
+        CharSequence text = HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT);
+        return text.length() > MAX_CHARS ? text.subSequence(0, MAX_CHARS) : text;
+    }
+
+    /**
+     * Returns at most the first {@code maxChars} of {@code html}, without cutting a tag or an
+     * entity in half. Unclosed elements are fine, since HTML parsing closes them.
+     */
+    @VisibleForTesting
+    static String truncateHtml(String html, int maxChars) {
+        if (html.length() <= maxChars) {
+            return html;
+        }
+        String prefix = html.substring(0, maxChars);
+        int tag = prefix.lastIndexOf('<');
+        if (tag > prefix.lastIndexOf('>')) {
+            prefix = prefix.substring(0, tag);
+        }
+        int entity = prefix.lastIndexOf('&');
+        if (entity >= 0 && entity > prefix.lastIndexOf(';')) {
+            prefix = prefix.substring(0, entity);
+        }
+        return prefix;
+    }
+}
@@ -0,0 +1,64 @@
+package net.mdln.englisc;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.List;
+
+/**
+ * A {@link BoundedCache} of {@link Dict#search} results, keyed by the normalized query, the
+ * limit, and the maximum number of results. Because each {@link Term} holds a full definition,
+ * a single entry can be large, so the byte bound is the one that usually matters.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class SearchCache extends BoundedCache<String, List<Term>> {
+    // Rough per-object overhead of a Term and its strings, in bytes.
+    private static final int TERM_OVERHEAD_BYTES = 96;
+
+    SearchCache(int maxEntries, long maxBytes) {
+        super(maxEntries, maxBytes);
+    }
+
+    private static String key(String normalizedQuery, int limit, int maxResults) {
+        return limit + ":" + maxResults + ":" + normalizedQuery;
+    }
+
+    private static long approximateBytes(String s) {
+        return s == null ? 0 : 2L * s.length();
+    }
+
+    @VisibleForTesting
+    static long approximateBytes(List<Term> terms) {
+        long n = 0;
+        for (Term t : terms) {
+            n += approximateBytes(t);
+        }
+        return n;
+    }
+
+    static long approximateBytes(Term t) {
+        return TERM_OVERHEAD_BYTES + approximateBytes(t.title()) + approximateBytes(t.defnHtml())
+                + approximateBytes(t.conjHtml()) + approximateBytes(t.modE());
+    }
+
+    @Override
+    long sizeOf(List<Term> terms) {
+        return approximateBytes(terms);
+    }
+
+    /**
+     * Returns the cached results for the query, or null if there are none.
+     */
+    @Nullable
+    List<Term> get(String normalizedQuery, int limit, int maxResults) {
+        return get(key(normalizedQuery, limit, maxResults));
+    }
+
+    /**
+     * Caches {@code terms}, which must not be modified afterwards. See {@link BoundedCache#put}.
+     */
+    void put(String normalizedQuery, int limit, int maxResults, List<Term> terms) {
+        put(key(normalizedQuery, limit, maxResults), terms);
+    }
+}
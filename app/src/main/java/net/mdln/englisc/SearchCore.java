@@ -0,0 +1,388 @@
+package net.mdln.englisc;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The SQL and scoring behind {@link Dict#search}. Nothing here depends on Android, so the JMH
+ * benchmarks in {@code bench/} compile this file as is and run it against the real database.
+ */
+final class SearchCore {
+    // Scoring happens in Java, but we want to keep from returning a huge number of low-quality
+    // results. So, we return all matches on "terms", but put a a LIMIT on the number of matches
+    // in the rest of the entry (effectively, the "html" column).
+    //
+    // The weird subexpression "ORDER BY CAST(substr(offsets(defn_idx), 5) AS INTEGER)" is a way of
+    // saying "strip off the first two numbers in the offsets (which are always one digit) extract
+    // the byte-offset of the match, and sort the results with early matches first." This is done by
+    // the scoring algorithm later in Java, but unless we do a rough version of it in SQL, we may
+    // never see some results that would otherwise score highly.
+    //
+    // The fourth query looks for the skeleton of the query (see QueryNormalizer.skeleton) in
+    // "skel", which has the skeletons of the terms, so that spelling variants are found in the same
+    // statement as everything else. Its rows are scored by scoreSkeletonRow.
+    //
+    // The last column says which of the four queries a row came from, so that we can tell whether
+    // the LIMIT on the first one cut anything off. (See Dict.NarrowingState.)
+    //
+    // We don't select "html" or "conj_html" here. They can be tens of kilobytes per entry and we
+    // only need the start of "html" for the results we return, so we get that afterwards with
+    // LOAD_HTML_PREVIEWS. That's also why we use UNION ALL: UNION would compare whole rows to remove duplicates, and a row
+    // can't be duplicated within a leg anyway. We remove duplicate rowids in Java.
+    private static final String Q1 = select(1) + " WHERE defn_idx MATCH ? ORDER BY CAST(substr(offsets(defn_idx), 5) AS INTEGER) LIMIT ?";
+    private static final String Q2 = select(2) + " WHERE terms MATCH ?";
+    private static final String Q3 = select(3) + " WHERE mod_e MATCH ?";
+    private static final String Q4 = select(4) + " WHERE skel MATCH ?";
+    static final String QRY = "SELECT * FROM (  " + Q1 + ") UNION ALL " + Q2 + " UNION ALL " + Q3 + " UNION ALL " + Q4;
+    // QRY without the exact search in "terms", for when we already have every prefix match in
+    // "terms" (which includes the exact matches) from somewhere else. The arguments are the same
+    // except that there's no third one.
+    static final String QRY_WITHOUT_TERMS = "SELECT * FROM (  " + Q1 + ") UNION ALL " + Q3 + " UNION ALL " + Q4;
+    // Search results are only shown as one-line previews (see RowText), and DefnActivity loads the
+    // whole entry again by nid when it's opened, so we don't copy more than this out of SQLite.
+    static final int PREVIEW_HTML_CHARS = 2000;
+    static final String LOAD_HTML_PREVIEWS = "SELECT id, substr(html, 1, " + PREVIEW_HTML_CHARS + ") FROM defn_content WHERE id IN ";
+
+    private static final double MINIMUM_SCORE = 0.003;
+    private static final double FUZZY_WEIGHT = 0.25;
+    private static final double SKELETON_WEIGHT = 0.25;
+    // The leg of QRY that searches "skel".
+    private static final int SKELETON_LEG = 4;
+
+    // The FTS5 version of QRY, for databases with "defn_fts5" (see write_fts5_copy in
+    // db/gen_db.py). Android's SQLite has no FTS5, so the app never runs this; it's only run on
+    // the JVM, by bench's Fts5SearchTest, to compare it with the FTS4 search. It scores rows in SQL the same way as scoreTerm, except that "early in the
+    // HTML" is measured with instr() on the content, since FTS5 has no offsets(). A small bm25()
+    // term, which weights Modern English equivalents over "terms" over "html", breaks the ties
+    // between rows that would otherwise only differ by how early they match. Rows that only
+    // match the skeleton are scored like scoreSkeletonRow does. The LIMIT applies after ranking
+    // and removing duplicate titles, so it's exactly the results we return.
+    //
+    // ?1 is the normalized query, ?2 is from fts5Query, and ?3 is the maximum number of results.
+    // The columns are the same as QRY's, except that the sixth is the score. The "LIMIT -1" keeps
+    // SQLite from flattening the subquery into the GROUP BY, where bm25() can't be used.
+    private static final String FTS5_SCORE = "(CASE WHEN instr(c.html, ?1) = 0 AND instr(c.terms, '/' || ?1) = 0"
+            + " AND (c.mod_e IS NULL OR instr(c.mod_e, ?1) = 0) THEN " + SKELETON_WEIGHT
+            + " * (2.0 + (CASE WHEN c.entry_type = 'a' THEN 1.0 ELSE 0.0 END) + (CASE WHEN c.mod_e IS NULL THEN 0.0 ELSE 0.5 END))"
+            + " ELSE (CASE WHEN instr(c.terms, '/' || ?1 || '/') > 0 THEN 2.0 ELSE 0.0 END)"
+            + " + (CASE WHEN c.entry_type = 'a' THEN 1.0 ELSE 0.0 END)"
+            + " + (CASE WHEN c.mod_e IS NULL THEN 0.0 WHEN instr(c.mod_e, ?1) > 0 THEN 5.5 ELSE 0.5 END)"
+            + " + COALESCE(1.0 / NULLIF(instr(c.html, ?1), 0), 1.0 / NULLIF(instr(c.terms, '/' || ?1), 0), 0.0) END)"
+            + " - 0.01 * bm25(defn_fts5, 1.0, 10.0, 5.0, 2.0)";
+    static final String QRY_FTS5 = "SELECT title, mod_e, id, terms, entry_type, MAX(score) AS score FROM ("
+            + "SELECT c.title, c.mod_e, c.id, c.terms, c.entry_type, " + FTS5_SCORE + " AS score"
+            + " FROM defn_fts5 JOIN defn_content AS c ON c.id = defn_fts5.rowid WHERE defn_fts5 MATCH ?2"
+            + " LIMIT -1) WHERE score >= " + MINIMUM_SCORE + " GROUP BY title ORDER BY score DESC, title, id LIMIT ?3";
+
+    // Older versions of SQLite don't allow more than 999 parameters in a statement.
+    static final int MAX_SQL_PARAMETERS = 500;
+
+    private SearchCore() {
+    }
+
+    private static String select(int leg) {
+        return "SELECT title, mod_e, rowid, terms, entry_type, offsets(defn_idx), " + leg + " FROM defn_idx";
+    }
+
+    /**
+     * The first argument to {@link #QRY} for a full search of the normalized query {@code term}.
+     * If there are any spaces, we can't be matching a word, so we do a phrase search. Otherwise,
+     * we do a word search of "html" and a prefix search in "terms".
+     */
+    static String ftsQuery(String term) {
+        return isPhrase(term) ? "\"" + term + "\"" : "html:" + term + " OR terms:" + term + "*";
+    }
+
+    /**
+     * The FTS5 query for {@link #QRY_FTS5}, equivalent to the union of the legs of {@link #QRY}
+     * for {@link #ftsQuery}. {@code skeleton} is {@code QueryNormalizer.skeleton(term)}.
+     */
+    static String fts5Query(String term, String skeleton) {
+        return isPhrase(term) ? "\"" + term + "\" OR skel : (" + skeleton + ")"
+                : "{html mod_e} : " + term + " OR terms : " + term + "* OR skel : " + skeleton;
+    }
+
+    static boolean isPhrase(String term) {
+        return term.contains(" ");
+    }
+
+    /**
+     * Matches for Modern English equivalents go first, then exact term matches
+     * and abbreviations, then we rank by how early in the HTML the query terms
+     * were.
+     */
+    private static double scoreTerm(boolean termMatch, boolean modEngMatch, boolean goodEntry, String entryType, int firstOffset) {
+        if (!entryType.equals("a") /* abbrev */ && !entryType.equals("e") /* entry */) {
+            throw new IllegalArgumentException("invalid entry type: '" + entryType + "'");
+        }
+        double score = (termMatch ? 2.0 : 0.0) + (entryType.equals("a") ? 1.0 : 0.0);
+        if (modEngMatch) {
+            score += 5;
+        }
+        if (goodEntry) {
+            score += 0.5;
+        }
+        if (firstOffset >= 0) {
+            score += 1.0 / firstOffset;
+        }
+        return score;
+    }
+
+    /**
+     * See https://www.sqlite.org/fts3.html#offsets. Searches use {@link #firstMatchOffset}
+     * instead, which doesn't allocate.
+     */
+    @VisibleForTesting
+    static List<MatchOffset> parseOffsets(String offsets) {
+        String[] e = offsets.split(" ");
+        if (e.length % 4 != 0) {
+            throw new RuntimeException("could not parse offsets: " + offsets);
+        }
+        ArrayList<MatchOffset> ret = new ArrayList<>();
+        for (int i = 0; i < e.length; i += 4) {
+            MatchOffset off = MatchOffset.create(
+                    Integer.parseInt(e[i]),
+                    Integer.parseInt(e[i + 1]),
+                    Integer.parseInt(e[i + 2]),
+                    Integer.parseInt(e[i + 3]));
+            ret.add(off);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the byte offset of the first match in an offsets() string, or -1 if there are no
+     * matches. This is {@code parseOffsets(offsets).get(0).offset()}, which is all the scoring
+     * needs, but it's called for every row, so it scans the string without allocating.
+     */
+    @VisibleForTesting
+    static int firstMatchOffset(String offsets) {
+        int field = 0;  // 0 = column, 1 = term, 2 = offset
+        int value = 0;
+        boolean inNumber = false;
+        for (int i = 0; i < offsets.length(); i++) {
+            char c = offsets.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                inNumber = true;
+            } else if (c == ' ' && inNumber) {
+                if (field == 2) {
+                    return value;
+                }
+                field++;
+                value = 0;
+                inNumber = false;
+            } else {
+                break;
+            }
+        }
+        if (offsets.isEmpty()) {
+            return -1;
+        }
+        throw new RuntimeException("could not parse offsets: " + offsets);
+    }
+
+    /**
+     * The "terms" column is of the form "/form1/form2/.../" so if it contains "/query/" then we
+     * got an exact term match. This checks that without building the string "/query/".
+     */
+    @VisibleForTesting
+    static boolean containsTerm(String terms, String query) {
+        int n = query.length();
+        for (int i = terms.indexOf(query); i >= 0; i = terms.indexOf(query, i + 1)) {
+            if (i > 0 && terms.charAt(i - 1) == '/' && i + n < terms.length() && terms.charAt(i + n) == '/') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Score a row. {@code firstOffset} is the offset of the first match reported by offsets(), or
+     * -1 if there isn't one. Rows from {@link #QRY}'s search of "skel" are scored by
+     * {@link #scoreSkeletonRow} instead.
+     */
+    static Match scoreRow(String query, Row row, int firstOffset) {
+        if (row.leg == SKELETON_LEG) {
+            return scoreSkeletonRow(row);
+        }
+        boolean termMatch = containsTerm(row.terms, query);
+        // The query is already normalized to lowercase.
+        boolean modEngMatch = row.modE != null && row.modE.contains(query);
+        boolean goodEntry = row.modE != null;
+        return new Match(row, scoreTerm(termMatch, modEngMatch, goodEntry, row.entryType, firstOffset));
+    }
+
+    /**
+     * Score a row that has {@code word}, which is {@code distance} edits from the query, in
+     * "terms". It's scored as if {@code word} were the query, and then each edit multiplies the
+     * score by {@link #FUZZY_WEIGHT}, so that it's well below rows that match the query
+     * itself in "terms" or "mod_e", but can still beat the weak matches far into the HTML.
+     */
+    static Match scoreFuzzyRow(String word, int distance, Row row) {
+        Match m = scoreRow(word, row, firstTokenWithPrefix(row.terms, word));
+        return new Match(row, m.score * Math.pow(FUZZY_WEIGHT, distance));
+    }
+
+    /**
+     * Score a row that has a term with the same skeleton as the query (see
+     * {@code QueryNormalizer.skeleton}), which is probably a spelling variant of it. It's scored
+     * like an exact match in "terms", without the bonus for matching early, since the offset is in
+     * "skel", and then multiplied by {@link #SKELETON_WEIGHT}, so that, like
+     * {@link #scoreFuzzyRow}'s, it's well below rows that match the query itself in "terms" or
+     * "mod_e". If the row matches the query itself, another leg of {@link #QRY} finds it too, and
+     * that score is the one that counts.
+     */
+    static Match scoreSkeletonRow(Row row) {
+        return new Match(row, SKELETON_WEIGHT * scoreTerm(true, false, row.modE != null, row.entryType, -1));
+    }
+
+    private static boolean isTokenSeparator(char c) {
+        return c == '/' || c == ' ';
+    }
+
+    /**
+     * Returns the offset of the first token in a "terms" column value that starts with
+     * {@code prefix}, or -1 if there is none. This is what FTS reports in offsets() for a
+     * "terms:prefix*" match, since the column only contains lowercase letters, spaces, and slashes.
+     */
+    @VisibleForTesting
+    static int firstTokenWithPrefix(String terms, String prefix) {
+        for (int i = terms.indexOf(prefix); i >= 0; i = terms.indexOf(prefix, i + 1)) {
+            if (i == 0 || isTokenSeparator(terms.charAt(i - 1))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Orders matches by score, highest first. Ties are broken by title and then nid, so that the
+     * order does not depend on the order in which SQLite returned rows. (That used to decide it:
+     * equal scores were left in the order of QRY's rows, and of equally scored rows with the same
+     * title, the first was kept. Now that QRY is a UNION ALL, that order means even less, so
+     * {@link TopMatches} keeps the one with the lowest nid.)
+     */
+    private static final Comparator<Match> BY_DESCENDING_SCORE = new Comparator<Match>() {
+        @Override
+        public int compare(Match m1, Match m2) {
+            int c = -1 * Double.compare(m1.score, m2.score);
+            if (c == 0) {
+                c = m1.row.title.compareTo(m2.row.title);
+            }
+            if (c == 0) {
+                c = Integer.compare(m1.row.rowId, m2.row.rowId);
+            }
+            return c;
+        }
+    };
+
+    /**
+     * Returns the best {@code maxResults} of {@code matches}. See {@link TopMatches}.
+     */
+    static List<Match> rank(List<Match> matches, int maxResults) {
+        TopMatches top = new TopMatches(maxResults);
+        for (Match m : matches) {
+            top.add(m);
+        }
+        return top.toList();
+    }
+
+    static String sqlParameterList(int n) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < n; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * The columns of a row returned by {@link #QRY}, other than offsets.
+     */
+    static final class Row {
+        final String title;
+        final String modE;
+        final int rowId;
+        final String terms;
+        final String entryType;
+        final int leg;
+
+        Row(String title, String modE, int rowId, String terms, String entryType, int leg) {
+            this.title = title;
+            this.modE = modE;
+            this.rowId = rowId;
+            this.terms = terms;
+            this.entryType = entryType;
+            this.leg = leg;
+        }
+    }
+
+    /**
+     * Collects the results of a search as its matches are read. Matches below
+     * {@link #MINIMUM_SCORE} are dropped immediately, only the best match for each title is kept
+     * (a row can match more than one leg of {@link #QRY}, and different rows can have the same
+     * title), and {@link #toList} selects the best {@code maxResults} of those with a bounded
+     * heap, so a caller that wants a few results doesn't pay to sort all of them.
+     */
+    static final class TopMatches {
+        private final int maxResults;
+        private final Map<String, Match> bestByTitle = new HashMap<>();
+
+        TopMatches(int maxResults) {
+            this.maxResults = maxResults;
+        }
+
+        void add(Match m) {
+            if (m.score < MINIMUM_SCORE) {
+                return;
+            }
+            Match prev = bestByTitle.get(m.row.title);
+            if (prev == null || BY_DESCENDING_SCORE.compare(m, prev) < 0) {
+                bestByTitle.put(m.row.title, m);
+            }
+        }
+
+        /**
+         * Returns the best matches in descending score order.
+         */
+        List<Match> toList() {
+            int n = Math.min(maxResults, bestByTitle.size());
+            if (n <= 0) {
+                return new ArrayList<>();
+            }
+            // The head of the heap is the worst of the best n matches seen so far.
+            PriorityQueue<Match> heap = new PriorityQueue<>(n + 1, Collections.reverseOrder(BY_DESCENDING_SCORE));
+            for (Match m : bestByTitle.values()) {
+                if (heap.size() < n) {
+                    heap.add(m);
+                } else if (BY_DESCENDING_SCORE.compare(m, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(m);
+                }
+            }
+            List<Match> retVal = new ArrayList<>(heap);
+            Collections.sort(retVal, BY_DESCENDING_SCORE);
+            return retVal;
+        }
+    }
+
+    /**
+     * A row and its score for the current query.
+     */
+    static final class Match {
+        final Row row;
+        final double score;
+
+        Match(Row row, double score) {
+            this.row = row;
+            this.score = score;
+        }
+    }
+}
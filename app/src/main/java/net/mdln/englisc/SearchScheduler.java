@@ -0,0 +1,137 @@
+package net.mdln.englisc;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs {@link MainActivity}'s searches one at a time on a single background thread. Only the
+ * latest request matters: requests are debounced, scheduling a new request cancels the SQLite
+ * query of the previous one through its {@link CancellationSignal}, and results are tagged with
+ * a sequence number so that a superseded search can never overwrite newer results.
+ * <p>
+ * {@link #schedule} and {@link #shutdown} must be called on the UI thread, and the
+ * {@link Listener} is called there too.
+ */
+final class SearchScheduler {
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Search search;
+    private final Listener listener;
+    // These are only accessed on the UI thread.
+    private int latestSeq = 0;
+    private CancellationSignal latestSignal = null;
+    private Runnable pending = null;
+    private boolean synchronous = false;
+
+    SearchScheduler(Search search, Listener listener) {
+        this.search = search;
+        this.listener = listener;
+    }
+
+    /**
+     * Search for {@code query} after {@code delayMillis}, unless another search is scheduled
+     * before then. Any search already in progress is cancelled.
+     */
+    void schedule(final String query, long delayMillis) {
+        final int seq = ++latestSeq;
+        if (latestSignal != null) {
+            latestSignal.cancel();
+        }
+        final CancellationSignal signal = new CancellationSignal();
+        latestSignal = signal;
+        if (pending != null) {
+            uiHandler.removeCallbacks(pending);
+            pending = null;
+        }
+        if (synchronous) {
+            waitFor(executor.submit(() -> runSearch(query, seq, signal)));
+        } else {
+            pending = () -> {
+                pending = null;
+                executor.submit(() -> runSearch(query, seq, signal));
+            };
+            uiHandler.postDelayed(pending, delayMillis);
+        }
+    }
+
+    /**
+     * Cancel everything and stop the background thread. Results that haven't been delivered yet
+     * are dropped.
+     */
+    void shutdown() {
+        latestSeq++;
+        if (pending != null) {
+            uiHandler.removeCallbacks(pending);
+            pending = null;
+        }
+        if (latestSignal != null) {
+            latestSignal.cancel();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * If true, {@link #schedule} runs searches immediately and blocks until they are done. This
+     * is for tests.
+     */
+    void setSynchronous(boolean s) {
+        synchronous = s;
+    }
+
+    private void waitFor(Future<?> f) {
+        try {
+            f.get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException | InterruptedException | TimeoutException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void runSearch(String query, int seq, CancellationSignal signal) {
+        // Skip searches that were superseded while they were waiting to run.
+        if (signal.isCanceled()) {
+            return;
+        }
+        final List<Term> terms;
+        try {
+            terms = search.run(query, signal);
+        } catch (OperationCanceledException e) {
+            Log.d("SearchScheduler", "Cancelled search for '" + query + "'.");
+            return;
+        }
+        if (terms == null) {
+            return;
+        }
+        uiHandler.post(() -> {
+            if (seq == latestSeq) {
+                listener.onResults(query, terms);
+            }
+        });
+    }
+
+    interface Search {
+        /**
+         * Runs on the background thread. Returns null if there are no results to show.
+         * Implementations should pass {@code signal} to SQLite and may throw
+         * {@link OperationCanceledException}.
+         */
+        List<Term> run(String query, CancellationSignal signal);
+    }
+
+    interface Listener {
+        /**
+         * Runs on the UI thread with the results of the most recently scheduled search.
+         */
+        void onResults(String query, List<Term> terms);
+    }
+}
@@ -1,6 +1,6 @@
 package net.mdln.englisc;
 
-import android.app.Activity;
+import android.content.Context;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -27,8 +27,8 @@ final class Streams {
         }
     }
 
-    static String readUtf8Resource(Activity activity, int id) {
-        try (InputStream stream = activity.getResources().openRawResource(id)) {
+    static String readUtf8Resource(Context ctx, int id) {
+        try (InputStream stream = ctx.getResources().openRawResource(id)) {
             return new String(toByteArray(stream), StandardCharsets.UTF_8);
         } catch (IOException e) {
             throw new RuntimeException("can't load raw resource " + id, e);
@@ -25,6 +25,9 @@ abstract class Term {
     @NotNull
     abstract String title();
 
+    /**
+     * The definition. For terms returned by {@link Dict#search}, this is only the start of it.
+     */
     @NotNull
     abstract String defnHtml();
 
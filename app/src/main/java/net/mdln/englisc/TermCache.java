@@ -0,0 +1,33 @@
+package net.mdln.englisc;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A {@link BoundedCache} of the {@link Term}s returned by {@link Dict#loadNid}, keyed by nid.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class TermCache extends BoundedCache<Integer, Term> {
+
+    TermCache(int maxEntries, long maxBytes) {
+        super(maxEntries, maxBytes);
+    }
+
+    @Override
+    long sizeOf(Term t) {
+        return SearchCache.approximateBytes(t);
+    }
+
+    @Nullable
+    Term get(int nid) {
+        return get(Integer.valueOf(nid));
+    }
+
+    boolean contains(int nid) {
+        return containsKey(nid);
+    }
+
+    void put(Term t) {
+        put(t.nid(), t);
+    }
+}
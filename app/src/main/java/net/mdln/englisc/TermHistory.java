@@ -2,39 +2,91 @@ package net.mdln.englisc;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Keeps track of term ids viewed and their timestamps so we can show recently viewed items
  * in {@link MainActivity}.
+ * <p>
+ * There is one row per term, with the last time it was viewed and how many times it has been
+ * viewed, and an index on the time, so that getting the most recent terms doesn't have to read
+ * the whole table. (Version 1 of the schema had a row per view; see {@link #upgradeFromV1}.)
+ * <p>
+ * Old entries are removed by {@link #prune}, which {@link HistoryRecorder} runs in the background
+ * once a day.
  */
 public class TermHistory implements AutoCloseable {
 
-    private static final int SCHEMA_VERSION = 1;
+    private static final int SCHEMA_VERSION = 2;
+    // SQLite only has "INSERT ... ON CONFLICT DO UPDATE" since 3.24, which is newer than some
+    // Android versions we support, so we upsert with an INSERT OR IGNORE and then an UPDATE.
+    private static final String INSERT_VIEW = "INSERT OR IGNORE INTO history (nid, last_seen_secs, view_count) VALUES (?, 0, 0)";
+    private static final String UPDATE_VIEW = "UPDATE history SET last_seen_secs = MAX(last_seen_secs, ?), view_count = view_count + ? WHERE nid = ?";
+    // prune() deletes this many rows per transaction, so that it never holds the write lock long.
+    private static final int PRUNE_BATCH_SIZE = 200;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
 
     private final SQLiteOpenHelper databaseHelper;
 
-    TermHistory(Context ctx, Location loc, long deleteHistoryBeforeMillis) {
-        this.databaseHelper = new OpenHelper(ctx, loc, deleteHistoryBeforeMillis / 1000.0);
+    TermHistory(Context ctx, Location loc) {
+        this.databaseHelper = new OpenHelper(ctx, loc);
     }
 
     void recordId(int nid, long timeMillis) {
-        String sql = "INSERT INTO history (nid, timestamp_secs) VALUES (?, ?)";
-        databaseHelper.getWritableDatabase().execSQL(sql, new Object[]{nid, timeMillis / 1000.0});
+        recordViews(Collections.singletonList(new View(nid, timeMillis, 1)));
     }
 
+    /**
+     * Records all of {@code views} in one transaction. See {@link HistoryRecorder}.
+     */
+    void recordViews(Collection<View> views) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement(INSERT_VIEW);
+             SQLiteStatement update = db.compileStatement(UPDATE_VIEW)) {
+            for (View v : views) {
+                insert.bindLong(1, v.nid);
+                insert.executeInsert();
+                update.bindDouble(1, v.timeMillis / 1000.0);
+                update.bindLong(2, v.count);
+                update.bindLong(3, v.nid);
+                update.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the number of times {@code nid} has been viewed.
+     */
+    int getViewCount(int nid) {
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT view_count FROM history WHERE nid = ?", new String[]{String.valueOf(nid)})) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    /**
+     * Returns the {@code limit} most recently viewed nids, most recent first.
+     */
     List<Integer> getIds(int limit) {
         SQLiteDatabase db = databaseHelper.getReadableDatabase();
         List<Integer> ids = new ArrayList<>();
-        String sql = "SELECT nid FROM ( SELECT nid, MAX(timestamp_secs) AS t FROM history GROUP by nid ) AS tb " +
-                "ORDER BY t DESC LIMIT " + limit;
+        String sql = "SELECT nid FROM history ORDER BY last_seen_secs DESC LIMIT " + limit;
         try (Cursor cursor = db.rawQuery(sql, new String[]{})) {
             while (cursor.moveToNext()) {
                 ids.add(cursor.getInt(0));
@@ -43,20 +95,90 @@ public class TermHistory implements AutoCloseable {
         return ids;
     }
 
+    /**
+     * Deletes the terms last viewed before {@code deleteBeforeMillis}, and then the least recently
+     * viewed terms beyond the most recent {@code maxRows}, a batch at a time. Then it returns
+     * the freed pages to the file system. Returns the number of terms deleted.
+     */
+    int prune(long deleteBeforeMillis, int maxRows) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        int deleted = 0;
+        try (SQLiteStatement deleteOld = db.compileStatement(
+                "DELETE FROM history WHERE nid IN (SELECT nid FROM history WHERE last_seen_secs < ? LIMIT " + PRUNE_BATCH_SIZE + ")")) {
+            deleteOld.bindDouble(1, deleteBeforeMillis / 1000.0);
+            while (true) {
+                int n = deleteOld.executeUpdateDelete();
+                deleted += n;
+                if (n < PRUNE_BATCH_SIZE) {
+                    break;
+                }
+            }
+        }
+        try (SQLiteStatement deleteOldest = db.compileStatement(
+                "DELETE FROM history WHERE nid IN (SELECT nid FROM history ORDER BY last_seen_secs LIMIT ?)")) {
+            long excess;
+            while ((excess = DatabaseUtils.queryNumEntries(db, "history") - maxRows) > 0) {
+                deleteOldest.bindLong(1, Math.min(excess, PRUNE_BATCH_SIZE));
+                deleted += deleteOldest.executeUpdateDelete();
+            }
+        }
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            // Reading the (empty) result is what runs it.
+            try (Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", new String[]{})) {
+                cursor.getCount();
+            }
+        } else {
+            // The database was created before we turned on incremental vacuuming (see
+            // OpenHelper.onConfigure), and that only takes effect after a full vacuum.
+            db.execSQL("VACUUM");
+        }
+        return deleted;
+    }
+
     @Override
     public void close() {
         databaseHelper.close();
     }
 
+    private static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE history (nid INTEGER PRIMARY KEY, last_seen_secs REAL NOT NULL, view_count INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX history_last_seen ON history (last_seen_secs)");
+    }
+
+    /**
+     * Converts version 1 of the schema, which had a row for each view, to the current one. This
+     * runs inside {@link SQLiteOpenHelper#onUpgrade}'s transaction.
+     */
+    @VisibleForTesting
+    static void upgradeFromV1(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE history RENAME TO history_v1");
+        createTables(db);
+        db.execSQL("INSERT INTO history (nid, last_seen_secs, view_count) "
+                + "SELECT nid, MAX(timestamp_secs), COUNT(*) FROM history_v1 GROUP BY nid");
+        db.execSQL("DROP TABLE history_v1");
+    }
+
     enum Location {ON_DISK, IN_MEMORY}
 
-    private static final class OpenHelper extends SQLiteOpenHelper {
+    /**
+     * {@code count} views of {@code nid}, the last of which was at {@code timeMillis}.
+     */
+    static final class View {
+        final int nid;
+        final long timeMillis;
+        final int count;
+
+        View(int nid, long timeMillis, int count) {
+            this.nid = nid;
+            this.timeMillis = timeMillis;
+            this.count = count;
+        }
+    }
 
-        private final double deleteHistoryBeforeSecs;
+    private static final class OpenHelper extends SQLiteOpenHelper {
 
-        public OpenHelper(Context context, Location loc, double deleteHistoryBeforeSecs) {
+        public OpenHelper(Context context, Location loc) {
             super(context, getPath(context, loc), null, SCHEMA_VERSION);
-            this.deleteHistoryBeforeSecs = deleteHistoryBeforeSecs;
         }
 
         @Nullable
@@ -66,18 +188,20 @@ public class TermHistory implements AutoCloseable {
         }
 
         @Override
-        public void onCreate(SQLiteDatabase db) {
-            db.execSQL("CREATE TABLE history (nid INTEGER, timestamp_secs REAL)");
+        public void onConfigure(SQLiteDatabase db) {
+            // This only changes new databases. See prune().
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
         }
 
         @Override
-        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        public void onCreate(SQLiteDatabase db) {
+            createTables(db);
         }
 
         @Override
-        public void onOpen(SQLiteDatabase db) {
-            if (deleteHistoryBeforeSecs > 0) {
-                db.execSQL("DELETE FROM history WHERE timestamp_secs < ?", new String[]{String.valueOf(deleteHistoryBeforeSecs)});
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 2) {
+                upgradeFromV1(db);
             }
         }
     }
@@ -0,0 +1,261 @@
+package net.mdln.englisc;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A sorted table of the words in the "terms" column, written by {@code db/term_index.py} (see
+ * that file for the format), and the nids of the entries that have each one. {@link Dict} uses
+ * it to find the prefix matches in "terms" with a binary search instead of an FTS query.
+ * <p>
+ * The file is memory-mapped and read in place, so opening it doesn't read it into the heap,
+ * and since nothing changes the buffer's position, it can be used from any thread.
+ */
+final class TermIndex {
+    private static final byte[] MAGIC = {'B', 'T', 'C', 'T', 'E', 'R', 'M', '1'};
+    private static final int HEADER_SIZE = MAGIC.length + 8;
+
+    private final ByteBuffer buf;
+    private final int wordCount;
+    private final int wordOffsetsPos;
+    private final int nidOffsetsPos;
+    private final int nidsPos;
+    private final int wordsPos;
+
+    private TermIndex(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_SIZE) {
+            throw new IOException("term index is truncated");
+        }
+        byte[] magic = new byte[MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = buf.get(i);
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a term index");
+        }
+        wordCount = buf.getInt(MAGIC.length);
+        int nidCount = buf.getInt(MAGIC.length + 4);
+        // Check that the sections fit before reading from them, in longs so that a corrupt count
+        // can't overflow.
+        long wordsStart = HEADER_SIZE + 8L * ((long) wordCount + 1) + 4L * nidCount;
+        if (wordCount < 0 || nidCount < 0 || wordsStart > buf.capacity()) {
+            throw new IOException("term index is truncated");
+        }
+        wordOffsetsPos = HEADER_SIZE;
+        nidOffsetsPos = wordOffsetsPos + 4 * (wordCount + 1);
+        nidsPos = nidOffsetsPos + 4 * (wordCount + 1);
+        wordsPos = nidsPos + 4 * nidCount;
+        if ((long) wordsPos + wordOffset(wordCount) != buf.capacity()) {
+            throw new IOException("term index is truncated");
+        }
+    }
+
+    /**
+     * Maps {@code f}. Throws IOException if it can't be read or isn't a term index.
+     */
+    static TermIndex open(File f) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            FileChannel ch = raf.getChannel();
+            // The mapping stays valid after the file is closed.
+            return new TermIndex(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    /**
+     * Returns true if {@code query} is something this index can answer: a single word of
+     * lowercase ASCII letters, like the words in "terms".
+     */
+    static boolean canLookUp(String query) {
+        if (query.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int wordOffset(int i) {
+        return buf.getInt(wordOffsetsPos + 4 * i);
+    }
+
+    /**
+     * Compares word {@code i} with {@code prefix}, treating every word that starts with
+     * {@code prefix} as equal to it.
+     */
+    private int comparePrefix(int i, CharSequence prefix) {
+        int start = wordsPos + wordOffset(i);
+        int len = wordOffset(i + 1) - wordOffset(i);
+        for (int j = 0; j < prefix.length(); j++) {
+            if (j == len) {
+                return -1;
+            }
+            int c = (buf.get(start + j) & 0xff) - prefix.charAt(j);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the first word that is at least {@code prefix} (or, if {@code after}, that comes
+     * after every word that starts with {@code prefix}), or the number of words if there is none.
+     */
+    private int lowerBound(CharSequence prefix, boolean after) {
+        int lo = 0;
+        int hi = wordCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = comparePrefix(mid, prefix);
+            if (c < 0 || (after && c == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the nids of the entries with a word in "terms" that starts with {@code prefix},
+     * which must satisfy {@link #canLookUp}, in no particular order. This is the same set of rows
+     * that match {@code terms:prefix*} in "defn_idx". Returns null if there are more than
+     * {@code max} of them.
+     */
+    @Nullable
+    List<Integer> nidsWithPrefix(String prefix, int max) {
+        Set<Integer> nids = new LinkedHashSet<>();
+        for (int i = lowerBound(prefix, false); i < wordCount && comparePrefix(i, prefix) == 0; i++) {
+            int end = buf.getInt(nidOffsetsPos + 4 * (i + 1));
+            for (int j = buf.getInt(nidOffsetsPos + 4 * i); j < end; j++) {
+                nids.add(buf.getInt(nidsPos + 4 * j));
+            }
+            if (nids.size() > max) {
+                return null;
+            }
+        }
+        return new ArrayList<>(nids);
+    }
+
+    /**
+     * Returns the words within {@code maxDistance} edits (insertions, deletions and
+     * substitutions) of {@code word}, which must satisfy {@link #canLookUp}, closest first.
+     * <p>
+     * This runs a Levenshtein automaton for {@code word} over the sorted words as if they were a
+     * trie: the automaton's state after reading a prefix is a row of the edit-distance table,
+     * which words with the same prefix share, so it only advances by the characters in which
+     * each word differs from the previous one. Once no state within {@code maxDistance} is left,
+     * it skips every word with that prefix. So the cost depends on how many prefixes are close
+     * to {@code word}, not on the number of words.
+     * <p>
+     * If {@link System#nanoTime} passes {@code deadlineNanos}, this stops and returns the words
+     * it has found so far.
+     */
+    List<Near> wordsNear(String word, int maxDistance, long deadlineNanos) {
+        int n = word.length();
+        // No prefix longer than this can be within maxDistance of `word`.
+        int maxDepth = n + maxDistance + 1;
+        int[][] rows = new int[maxDepth + 1][n + 1];
+        for (int j = 0; j <= n; j++) {
+            rows[0][j] = j;
+        }
+        StringBuilder path = new StringBuilder();
+        List<Near> found = new ArrayList<>();
+        int visited = 0;
+        int i = 0;
+        while (i < wordCount) {
+            if ((visited++ & 63) == 0 && System.nanoTime() - deadlineNanos > 0) {
+                break;
+            }
+            int start = wordsPos + wordOffset(i);
+            int len = wordOffset(i + 1) - wordOffset(i);
+            // Reuse the rows for the prefix this word shares with the path so far.
+            int depth = 0;
+            while (depth < path.length() && depth < len && buf.get(start + depth) == path.charAt(depth)) {
+                depth++;
+            }
+            path.setLength(depth);
+            boolean dead = false;
+            while (depth < len) {
+                char c = (char) (buf.get(start + depth) & 0xff);
+                path.append(c);
+                int[] prev = rows[depth];
+                int[] row = rows[depth + 1];
+                row[0] = depth + 1;
+                int min = row[0];
+                for (int j = 1; j <= n; j++) {
+                    int cost = word.charAt(j - 1) == c ? 0 : 1;
+                    row[j] = Math.min(Math.min(row[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                    min = Math.min(min, row[j]);
+                }
+                depth++;
+                if (min > maxDistance) {
+                    dead = true;
+                    break;
+                }
+            }
+            if (dead) {
+                i = lowerBound(path, true);
+                continue;
+            }
+            if (rows[len][n] <= maxDistance) {
+                found.add(new Near(path.toString(), rows[len][n], i));
+            }
+            i++;
+        }
+        Collections.sort(found, BY_DISTANCE);
+        return found;
+    }
+
+    /**
+     * Returns the nids of the entries with {@code near}'s word in "terms".
+     */
+    List<Integer> nids(Near near) {
+        List<Integer> nids = new ArrayList<>();
+        int end = buf.getInt(nidOffsetsPos + 4 * (near.index + 1));
+        for (int j = buf.getInt(nidOffsetsPos + 4 * near.index); j < end; j++) {
+            nids.add(buf.getInt(nidsPos + 4 * j));
+        }
+        return nids;
+    }
+
+    private static final Comparator<Near> BY_DISTANCE = new Comparator<Near>() {
+        @Override
+        public int compare(Near n1, Near n2) {
+            int c = Integer.compare(n1.distance, n2.distance);
+            return c != 0 ? c : Integer.compare(n1.index, n2.index);
+        }
+    };
+
+    /**
+     * A word found by {@link #wordsNear} and its edit distance from the query.
+     */
+    static final class Near {
+        final String word;
+        final int distance;
+        private final int index;
+
+        Near(String word, int distance, int index) {
+            this.word = word;
+            this.distance = distance;
+            this.index = index;
+        }
+    }
+}
@@ -1,29 +1,56 @@
 package net.mdln.englisc;
 
-import android.app.Activity;
+import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Color;
 import android.os.Build;
-import android.util.Base64;
 import android.webkit.WebView;
 
 import androidx.webkit.WebSettingsCompat;
 import androidx.webkit.WebViewFeature;
 
+/**
+ * Shows definitions in a {@link WebView} with the app's stylesheet. Building the document (see
+ * {@link #styledHtml}) and loading it (see {@link #load}) are separate so that the first, which
+ * copies the whole definition, can happen off the UI thread.
+ */
 public class WebViewStyle {
+    // The contents of R.raw.defn, which is only read once. Guarded by WebViewStyle.class.
+    private static String css = null;
+
     private WebViewStyle() {
     }
 
     /**
-     * Apply the app's style to {@code view} and set its HTML to {@code html}.
+     * Set up {@code view} as {@link #load} does and show an empty page, so that it doesn't flash
+     * white while the definition is being loaded. This doesn't need the stylesheet, so it's cheap
+     * enough for {@code onCreate}. This must be called on the UI thread.
+     */
+    static void loadBlank(WebView view) {
+        loadStyled(view, "<html><body></body></html>");
+    }
+
+    /**
+     * Apply the app's style to {@code view} and load {@code document}, which must come from
+     * {@link #styledHtml}. This must be called on the UI thread.
+     * <p>
+     * We use loadDataWithBaseURL, rather than loadData, because loadData needs the document to be
+     * base64-encoded (or URL-encoded) first, which is another copy of it.
+     * <p>
+     * The WebView renders the document asynchronously, so the time recorded for
+     * {@link Latency#WEBVIEW_LOAD} is only what this call blocks the UI thread for.
      */
-    public static void apply(Activity activity, WebView view, String html) {
+    static void load(WebView view, String document) {
+        try (Latency.Section s = Latency.start(Latency.WEBVIEW_LOAD)) {
+            loadStyled(view, document);
+        }
+    }
+
+    private static void loadStyled(WebView view, String document) {
         WebView.setWebContentsDebuggingEnabled(true);
         view.setBackgroundColor(Color.TRANSPARENT);  // Otherwise it flashes white before rendering in dark mode.
         view.getSettings().setJavaScriptEnabled(BuildConfig.DEBUG); // Espresso needs JavaScript.
-        boolean night = inNightMode(activity);
-        String encodedHtml = Base64.encodeToString(styledHtml(activity, html, night).getBytes(), Base64.NO_PADDING);
-        view.loadData(encodedHtml, "text/html; charset=utf-8", "base64");
+        view.loadDataWithBaseURL(null, document, "text/html", "utf-8", null);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             if (WebViewFeature.isFeatureSupported(WebViewFeature.ALGORITHMIC_DARKENING)) {
                 WebSettingsCompat.setAlgorithmicDarkeningAllowed(view.getSettings(), false);
@@ -31,15 +58,34 @@ public class WebViewStyle {
         }
     }
 
-    private static String styledHtml(Activity activity, String html, boolean night) {
-        String headBlock = "<head><style type=\"text/css\">" + Streams.readUtf8Resource(activity, R.raw.defn) + "</style></head>";
-        String styleClass = night ? "dark" : "light";
-        String bodyBlock = "<body class=\"" + styleClass + "\">" + html + "</body>";
-        return "<html>" + headBlock + bodyBlock + "</html>";
+    private static synchronized String css(Context ctx) {
+        if (css == null) {
+            css = Streams.readUtf8Resource(ctx, R.raw.defn);
+        }
+        return css;
+    }
+
+    /**
+     * Returns a complete HTML document that shows {@code html} with the app's stylesheet, for the
+     * current day/night mode. This can be called on any thread.
+     */
+    static String styledHtml(Context ctx, String html) {
+        try (Latency.Section s = Latency.start(Latency.WEBVIEW_STYLE)) {
+            return buildStyledHtml(ctx, html);
+        }
+    }
+
+    private static String buildStyledHtml(Context ctx, String html) {
+        String style = css(ctx);
+        String styleClass = inNightMode(ctx) ? "dark" : "light";
+        return new StringBuilder(style.length() + html.length() + 100)
+                .append("<html><head><style type=\"text/css\">").append(style).append("</style></head>")
+                .append("<body class=\"").append(styleClass).append("\">").append(html).append("</body></html>")
+                .toString();
     }
 
-    private static boolean inNightMode(Activity activity) {
-        Configuration cfg = activity.getResources().getConfiguration();
+    private static boolean inNightMode(Context ctx) {
+        Configuration cfg = ctx.getResources().getConfiguration();
         int nightMode = cfg.uiMode & Configuration.UI_MODE_NIGHT_MASK;
         return nightMode == Configuration.UI_MODE_NIGHT_YES;
     }
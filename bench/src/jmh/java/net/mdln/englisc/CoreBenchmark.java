@@ -0,0 +1,107 @@
+package net.mdln.englisc;
+
+import net.mdln.englisc.SearchCore.Match;
+import net.mdln.englisc.SearchCore.Row;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory steps of a search, on the rows that the real database returns for the queries in
+ * the mix. Each operation processes every query, or every row returned for them, once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreBenchmark {
+    @Param({"prefix", "inflected", "phrase", "common"})
+    public String mix;
+
+    private String[] queries;
+    private final List<String> terms = new ArrayList<>();
+    // For each query, the rows QRY returns and their offsets() columns.
+    private final List<List<Row>> rows = new ArrayList<>();
+    private final List<List<String>> offsets = new ArrayList<>();
+    private final List<List<Match>> matches = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws SQLException {
+        queries = QueryMix.get(mix);
+        try (JdbcSearch search = new JdbcSearch()) {
+            for (String q : queries) {
+                String term = QueryNormalizer.normalize(q);
+                terms.add(term);
+                rows.add(search.rows(term));
+                offsets.add(search.offsets(term));
+                matches.add(search.matches(term));
+            }
+        }
+    }
+
+    /**
+     * This is what {@code Dict.normalizeQuery} does.
+     */
+    @Benchmark
+    public void normalizeQuery(Blackhole bh) {
+        for (String q : queries) {
+            bh.consume(QueryNormalizer.normalize(q));
+        }
+    }
+
+    @Benchmark
+    public void parseOffsets(Blackhole bh) {
+        for (List<String> os : offsets) {
+            for (String o : os) {
+                bh.consume(SearchCore.parseOffsets(o));
+            }
+        }
+    }
+
+    @Benchmark
+    public void firstMatchOffset(Blackhole bh) {
+        for (List<String> os : offsets) {
+            for (String o : os) {
+                bh.consume(SearchCore.firstMatchOffset(o));
+            }
+        }
+    }
+
+    @Benchmark
+    public void scoreRows(Blackhole bh) {
+        for (int i = 0; i < terms.size(); i++) {
+            List<Row> rs = rows.get(i);
+            List<String> os = offsets.get(i);
+            for (int j = 0; j < rs.size(); j++) {
+                bh.consume(SearchCore.scoreRow(terms.get(i), rs.get(j), SearchCore.firstMatchOffset(os.get(j))));
+            }
+        }
+    }
+
+    /**
+     * Filtering, removing duplicates, and selecting the best results.
+     */
+    @Benchmark
+    public void rank(Blackhole bh) {
+        for (List<Match> ms : matches) {
+            bh.consume(SearchCore.rank(ms, JdbcSearch.MAX_RESULTS));
+        }
+    }
+}
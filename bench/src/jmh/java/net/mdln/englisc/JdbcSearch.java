@@ -0,0 +1,132 @@
+package net.mdln.englisc;
+
+import net.mdln.englisc.SearchCore.Match;
+import net.mdln.englisc.SearchCore.Row;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The FTS4 full search only: what {@code Dict.fullSearch} and the HTML loading after it do, with
+ * the same SQL and scoring, but through sqlite-jdbc instead of Android's SQLite.
+ * {@code Dict.search} only takes this path when it has no {@code TermIndex} or the query isn't a
+ * single word, and it also narrows earlier results, adds fuzzy matches and caches results, none
+ * of which this measures.
+ */
+final class JdbcSearch implements AutoCloseable {
+    // The same as the arguments MainActivity uses.
+    static final int LIMIT = 50;
+    static final int MAX_RESULTS = 100;
+
+    private final Connection conn;
+    private final PreparedStatement qry;
+
+    JdbcSearch() throws SQLException {
+        String path = System.getProperty("dictdb");
+        if (path == null) {
+            throw new IllegalStateException("set -Ddictdb to the path of the dictionary database");
+        }
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        conn = DriverManager.getConnection("jdbc:sqlite:" + path, config.toProperties());
+        qry = conn.prepareStatement(SearchCore.QRY);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        qry.close();
+        conn.close();
+    }
+
+    private ResultSet runQry(String term) throws SQLException {
+        qry.setString(1, SearchCore.ftsQuery(term));
+        qry.setInt(2, LIMIT);
+        qry.setString(3, term);
+        qry.setString(4, term);
+        qry.setString(5, QueryNormalizer.skeleton(term));
+        return qry.executeQuery();
+    }
+
+    /**
+     * The offsets() column of every row that {@link SearchCore#QRY} returns for {@code term}.
+     */
+    List<String> offsets(String term) throws SQLException {
+        List<String> retVal = new ArrayList<>();
+        try (ResultSet rs = runQry(term)) {
+            while (rs.next()) {
+                retVal.add(rs.getString(6));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * The rows that {@link SearchCore#QRY} returns for {@code term}, in the same order as
+     * {@link #offsets}.
+     */
+    List<Row> rows(String term) throws SQLException {
+        List<Row> retVal = new ArrayList<>();
+        try (ResultSet rs = runQry(term)) {
+            while (rs.next()) {
+                retVal.add(readRow(rs));
+            }
+        }
+        return retVal;
+    }
+
+    private static Row readRow(ResultSet rs) throws SQLException {
+        return new Row(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getString(4), rs.getString(5), rs.getInt(7));
+    }
+
+    /**
+     * Unsorted matches for the normalized query {@code term}, as {@code Dict.fullSearch} returns
+     * them.
+     */
+    List<Match> matches(String term) throws SQLException {
+        List<Match> retVal = new ArrayList<>();
+        try (ResultSet rs = runQry(term)) {
+            while (rs.next()) {
+                retVal.add(SearchCore.scoreRow(term, readRow(rs), SearchCore.firstMatchOffset(rs.getString(6))));
+            }
+        }
+        return retVal;
+    }
+
+    List<Term> search(String query) throws SQLException {
+        String term = QueryNormalizer.normalize(query);
+        List<Match> matches = SearchCore.rank(matches(term), MAX_RESULTS);
+        Map<Integer, String> html = new HashMap<>();
+        for (int start = 0; start < matches.size(); start += SearchCore.MAX_SQL_PARAMETERS) {
+            int end = Math.min(matches.size(), start + SearchCore.MAX_SQL_PARAMETERS);
+            String sql = SearchCore.LOAD_HTML_PREVIEWS + SearchCore.sqlParameterList(end - start);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (int i = start; i < end; i++) {
+                    stmt.setInt(i - start + 1, matches.get(i).row.rowId);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        html.put(rs.getInt(1), rs.getString(2));
+                    }
+                }
+            }
+        }
+        List<Term> terms = new ArrayList<>();
+        for (Match m : matches) {
+            String h = html.get(m.row.rowId);
+            if (h != null) {
+                terms.add(Term.create(m.row.title, h, null, m.row.modE, m.row.rowId, m.score));
+            }
+        }
+        return Collections.unmodifiableList(terms);
+    }
+}
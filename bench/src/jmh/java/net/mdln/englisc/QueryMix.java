@@ -0,0 +1,34 @@
+package net.mdln.englisc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sets of queries that resemble what users type, for the {@code mix} parameter of the benchmarks.
+ */
+final class QueryMix {
+    private static final Map<String, String[]> MIXES = new HashMap<>();
+
+    static {
+        // What the search box sees while someone types a word. MainActivity doesn't search until
+        // there are two characters.
+        MIXES.put("prefix", new String[]{"he", "hel", "help", "sw", "swy", "wr", "wri"});
+        // Inflected and variant forms, which match through "terms".
+        MIXES.put("inflected", new String[]{"healp", "Swylce", "þrittig", "writon", "eode", "cwæð"});
+        // Modern English phrases, which do a phrase search of the whole entry.
+        MIXES.put("phrase", new String[]{"to write", "to help", "the king", "a great number"});
+        // Very common words, which match a large part of the dictionary.
+        MIXES.put("common", new String[]{"thaet", "þonne", "and", "the", "se", "is"});
+    }
+
+    private QueryMix() {
+    }
+
+    static String[] get(String mix) {
+        String[] queries = MIXES.get(mix);
+        if (queries == null) {
+            throw new IllegalArgumentException("unknown query mix: " + mix);
+        }
+        return queries;
+    }
+}
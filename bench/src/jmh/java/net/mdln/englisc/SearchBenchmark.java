@@ -0,0 +1,55 @@
+package net.mdln.englisc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FTS4 full search, end to end: SQL, scoring, ranking, and loading the HTML of the results.
+ * Each operation searches for every query in the mix. See {@link JdbcSearch} for what this
+ * leaves out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"prefix", "inflected", "phrase", "common"})
+    public String mix;
+
+    private String[] queries;
+    private JdbcSearch search;
+
+    @Setup
+    public void setUp() throws SQLException {
+        queries = QueryMix.get(mix);
+        search = new JdbcSearch();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        search.close();
+    }
+
+    @Benchmark
+    public void search(Blackhole bh) throws SQLException {
+        for (String q : queries) {
+            bh.consume(search.search(q));
+        }
+    }
+}
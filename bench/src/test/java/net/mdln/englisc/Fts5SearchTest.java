@@ -0,0 +1,70 @@
+package net.mdln.englisc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONArray;
+import org.junit.Test;
+import org.sqlite.SQLiteConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Checks the FTS5 search, {@link SearchCore#QRY_FTS5}, against the searches in
+ * {@code db/testdata/search-cases.jsonl}, which {@code DictTest} checks against the FTS4 search
+ * on a device. Android's SQLite has no FTS5, so the app doesn't use this search, but
+ * sqlite-jdbc's SQLite has it.
+ * <p>
+ * This needs {@code db/dictdb_fts5}, which {@code db/build_dict_db.sh} only writes when
+ * {@code DICT_FTS5} is set.
+ */
+public class Fts5SearchTest {
+    // The same as the arguments MainActivity uses.
+    private static final int MAX_RESULTS = 100;
+
+    private static Connection open() throws SQLException {
+        String path = System.getProperty("dictdb");
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + path, config.toProperties());
+        try (Statement s = conn.createStatement()) {
+            s.executeQuery("SELECT rowid FROM defn_fts5 LIMIT 0").close();
+        } catch (SQLException e) {
+            conn.close();
+            fail(path + " has no defn_fts5; build it with DICT_FTS5=1 db/build_dict_db.sh");
+        }
+        return conn;
+    }
+
+    @Test
+    public void searchCases() throws IOException, SQLException {
+        List<String> lines = Files.readAllLines(Paths.get(System.getProperty("searchCases")), StandardCharsets.UTF_8);
+        try (Connection conn = open(); PreparedStatement qry = conn.prepareStatement(SearchCore.QRY_FTS5)) {
+            for (String line : lines) {
+                JSONArray c = new JSONArray(line);
+                String term = QueryNormalizer.normalize(c.getString(0));
+                String msg = "query: '" + c.getString(0) + "' (" + c.getString(2) + ")";
+                // See QRY_FTS5 for the arguments.
+                qry.setString(1, term);
+                qry.setString(2, SearchCore.fts5Query(term, QueryNormalizer.skeleton(term)));
+                qry.setInt(3, MAX_RESULTS);
+                try (ResultSet rs = qry.executeQuery()) {
+                    assertTrue(msg, rs.next());
+                    assertEquals(msg, c.getString(1), rs.getString(1));
+                }
+            }
+        }
+        assertTrue(lines.size() > 0);
+    }
+}
@@ -1,9 +1,21 @@
 #!/bin/bash
 
 # Use `oe_bosworthtoller.txt.bz2`, `oebt_abbreviations.xml`, and
-# `generator-output.txt` to generate the sqlite3 databases
-# `app/src/main/res/raw/dictdb` and a random revision identifier,
-# `app/src/main/res/raw/dictdb_rev`.
+# `generator-output.txt` to generate the sqlite3 database `db/dictdb` and a
+# random revision identifier, `db/dictdb_rev`. These are installed in the app
+# as `app/src/main/res/raw/dictdb` (gzipped, to keep the APK small; `DictDB`
+# decompresses it on first run) and `app/src/main/res/raw/dictdb_rev`. The sorted
+# table of the words in the terms column, `db/dictdb_terms` (see `db/term_index.py`),
+# is installed the same way as `app/src/main/res/raw/dictdb_terms`.
+#
+# If `DICT_DELTA_BASE` is set to a copy of the previous release's `db/dictdb` (with
+# its `dictdb_rev` next to it), also write a patch from that release to this one
+# as `app/src/main/res/raw/dictdb_delta`, so that `DictDB` can update the
+# installed database without copying all of it. Otherwise, that file is empty.
+#
+# If `DICT_FTS5` is set, also write `db/dictdb_fts5`, a copy of `db/dictdb` with the
+# FTS5 index that `:bench:test` checks the FTS5 search against. It isn't installed
+# in the app.
 #
 # If `DICT_LIMIT_LINES` is set, limit the number of lines used in the input
 # files each to that many lines. This can be used to smoke-test the process;
@@ -19,4 +31,15 @@ inflect/make_table.py > db/verbs.yaml
 
 db/gen_db.py ${DICT_LIMIT_LINES:+--limit $DICT_LIMIT_LINES} --bt-dict db/oe_bt.json \
     --inflections db/generator-output-trimmed.txt --abbrevs db/oebt_abbreviations.xml --extra-forms db/extra-forms.txt \
-    --verbs db/verbs.yaml --mod-eng-dictionary /usr/share/dict/words --output app/src/main/res/raw/dictdb
+    --verbs db/verbs.yaml --mod-eng-dictionary /usr/share/dict/words --output db/dictdb \
+    ${DICT_FTS5:+--fts5-output db/dictdb_fts5}
+
+gzip -9 --no-name --stdout db/dictdb > app/src/main/res/raw/dictdb
+gzip -9 --no-name --stdout db/dictdb_terms > app/src/main/res/raw/dictdb_terms
+cp db/dictdb_rev app/src/main/res/raw/dictdb_rev
+
+if [[ -n "${DICT_DELTA_BASE:-}" ]]; then
+    db/make_delta.py --base "$DICT_DELTA_BASE" --new db/dictdb --output app/src/main/res/raw/dictdb_delta
+else
+    : > app/src/main/res/raw/dictdb_delta
+fi
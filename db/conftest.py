@@ -0,0 +1,43 @@
+#!/usr/bin/env python3
+
+import sqlite3
+from typing import Iterator
+
+import pytest
+
+import gen_db
+
+
+@pytest.fixture
+def small_db() -> Iterator[sqlite3.Connection]:
+    """A few entries, indexed by `gen_db.build_defn_idx`, for tests that need `defn_idx`."""
+    db = sqlite3.connect(":memory:")
+    gen_db.create_temp_tables(db)
+    db.executemany(
+        "INSERT INTO defns VALUES (?, ?, ?, NULL, ?, ?)",
+        [
+            (1, "helpan", "<B>helpan</B> to help", "to help", "e"),
+            (2, "help", "<B>help</B> help", "help", "e"),
+            (3, "A. S.", "<B>A. S.</B> (abbrev.)", None, "a"),
+            (4, "þæt", "<B>þæt</B> that", None, "e"),
+            (5, "hýran", "<B>hýran</B> to hear", "to hear", "e"),
+            (6, "cyning", "<B>cyning</B> king", "king", "e"),
+        ],
+    )
+    db.executemany(
+        "INSERT INTO idx VALUES (?, ?)",
+        [
+            ("helpan", 1),
+            ("healp", 1),
+            ("help", 2),
+            ("anglo saxon", 3),
+            ("a s", 3),
+            ("thaet", 4),
+            ("hyran", 5),
+            ("cyning", 6),
+            ("cyninges", 6),
+        ],
+    )
+    gen_db.build_defn_idx(db)
+    yield db
+    db.close()
@@ -7,6 +7,7 @@ import json
 import logging
 import os
 import re
+import shutil
 import sqlite3
 from html import escape
 from sqlite3 import Connection
@@ -16,7 +17,8 @@ import chevron
 import yaml
 
 from abbrevs import Abbrev, read_abbrevs
-from normalize import acute_to_macron_in_nonitalic, ascify, split_senses_into_paragraphs
+from normalize import acute_to_macron_in_nonitalic, ascify, skeleton, split_senses_into_paragraphs
+from term_index import write_term_index
 
 # This can be made more rigorous, but these are words appearing at least 50
 # times in Beowulf.
@@ -60,6 +62,28 @@ VERY_COMMON_WORDS = set(
 EXTRA_MOD_ENG_WORDS = ["grimm", "things", "thomas", "words"]
 
 
+def create_temp_tables(db: Connection) -> None:
+    """Create the temporary `idx` and `defns` tables that `build_defn_idx` reads.
+
+    `entry_type` is 'a' for abbreviations and 'e' for dictionary entries.
+    """
+    c = db.cursor()
+    c.execute("CREATE TEMP TABLE idx (term TEXT NOT NULL, nid INT NOT NULL)")
+    c.execute(
+        """
+        CREATE TEMP TABLE defns (
+            nid INT PRIMARY KEY,
+            title TEXT NOT NULL,
+            html TEXT NOT NULL,
+            conj_html TEXT DEFAULT NULL,
+            mod_e TEXT DEFAULT NULL,
+            entry_type CHAR(1) NOT NULL
+        )
+        """
+    )
+    c.close()
+
+
 def add_inflected_terms_to_db(
     inflections_path: str, db: Connection, limit: Optional[int] = None
 ) -> None:
@@ -168,6 +192,11 @@ def parse_args() -> argparse.Namespace:
     parser.add_argument("--output", required=True)
     parser.add_argument("--limit", type=int, default=None)
     parser.add_argument("--mod-eng-dictionary", required=True)
+    parser.add_argument(
+        "--fts5-output",
+        default=None,
+        help="also write a copy of the database with defn_fts5, which isn't shipped",
+    )
     return parser.parse_args()
 
 
@@ -227,6 +256,18 @@ def tokenize_html(h: str) -> str:
     return h
 
 
+def skeletons(terms: Optional[str]) -> Optional[str]:
+    """Return the distinct skeletons of the terms in a "terms" column value."""
+    if terms is None:
+        return None
+    skels = []  # type: List[str]
+    for t in terms.strip("/").split("/"):
+        sk = skeleton(t)
+        if sk and sk not in skels:
+            skels.append(sk)
+    return "/" + "/".join(skels) + "/"
+
+
 def build_defn_idx(db: Connection) -> None:
     """Generate a full-text index in `defn_idx` and `defn_content`.
 
@@ -234,19 +275,22 @@ def build_defn_idx(db: Connection) -> None:
     normalized non-ASCII characters and stripped HTML, but still have the full
     HTML for rendering.
 
-    The "terms" column is of the form "/term1/term2/.../".
+    The "terms" column is of the form "/term1/term2/.../". The "skel" column
+    has the distinct skeletons of the terms (see `normalize.skeleton`) in the
+    same form, so that the app can find variant spellings with a word search.
     """
     c = db.cursor()
     try:
         c.execute("CREATE TEMP TABLE idx_uniq AS SELECT DISTINCT * FROM idx")
         c.execute(
             "CREATE TABLE defn_content (id INTEGER PRIMARY KEY, "
-            "title TEXT, html TEXT, conj_html TEXT, mod_e TEXT, terms TEXT, entry_type TEXT)"
+            "title TEXT, html TEXT, conj_html TEXT, mod_e TEXT, terms TEXT, entry_type TEXT, "
+            "skel TEXT)"
         )
         c.execute(
             """
             CREATE VIRTUAL TABLE defn_idx USING fts4(
-                title, html, conj_html, mod_e, terms, entry_type,
+                title, html, conj_html, mod_e, terms, entry_type, skel,
                 content="defn_content",
                 notindexed="title",
                 notindexed="conj_html"
@@ -256,7 +300,7 @@ def build_defn_idx(db: Connection) -> None:
         )
         c.execute(
             "INSERT INTO defn_content SELECT defns.nid, title, html, conj_html, mod_e, "
-            "'/' || GROUP_CONCAT(term, '/') || '/', entry_type "
+            "'/' || GROUP_CONCAT(term, '/') || '/', entry_type, NULL "
             "FROM defns LEFT JOIN idx_uniq ON defns.nid = idx_uniq.nid "
             "GROUP BY defns.nid"
         )
@@ -265,17 +309,76 @@ def build_defn_idx(db: Connection) -> None:
             "SELECT id, title, html, conj_html, mod_e, terms, entry_type FROM defn_content"
         ).fetchall():
             html_tokens = tokenize_html(row[2])
+            skel = skeletons(row[5])
+            c.execute("UPDATE defn_content SET skel = ? WHERE id = ?", (skel, row[0]))
             c.execute(
                 """
-                INSERT INTO defn_idx (docid, title, html, conj_html, mod_e, terms, entry_type)
-                    VALUES (?, ?, ?, ?, ?, ?, ?)
+                INSERT INTO defn_idx (docid, title, html, conj_html, mod_e, terms, entry_type, skel)
+                    VALUES (?, ?, ?, ?, ?, ?, ?, ?)
                 """,
-                (row[0], row[1], html_tokens, row[3], row[4], row[5], row[6]),
+                (row[0], row[1], html_tokens, row[3], row[4], row[5], row[6], skel),
             )
     finally:
         c.close()
 
 
+def fts5_available(db: Connection) -> bool:
+    """Return whether `db`'s SQLite library has FTS5."""
+    return bool(db.execute("SELECT sqlite_compileoption_used('ENABLE_FTS5')").fetchone()[0])
+
+
+def build_defn_fts5(db: Connection) -> None:
+    """Generate `defn_fts5`, an FTS5 index of `defn_content`.
+
+    The app can search this instead of `defn_idx` when its SQLite has FTS5 and
+    the FTS5 search is turned on (see `SearchCore.QRY_FTS5`), since FTS5 can
+    rank results in SQL with bm25(). Only `write_fts5_copy` builds it. Like `defn_idx`, it indexes the normalized
+    text of the HTML rather than the HTML itself, so the index doesn't match the
+    external content; only auxiliary functions that don't read the content,
+    like bm25(), work with it.
+    """
+    c = db.cursor()
+    try:
+        c.execute(
+            """
+            CREATE VIRTUAL TABLE defn_fts5 USING fts5(
+                html, mod_e, terms, skel,
+                content="defn_content",
+                content_rowid="id",
+                prefix="2 3"
+            )
+            """
+        )
+        for row in c.execute("SELECT id, html, mod_e, terms, skel FROM defn_content").fetchall():
+            c.execute(
+                "INSERT INTO defn_fts5 (rowid, html, mod_e, terms, skel) VALUES (?, ?, ?, ?, ?)",
+                (row[0], tokenize_html(row[1]), row[2], row[3], row[4]),
+            )
+        c.execute("INSERT INTO defn_fts5 (defn_fts5) VALUES ('optimize')")
+    finally:
+        c.close()
+
+
+def write_fts5_copy(path: str, fts5_path: str) -> None:
+    """Copy the database at `path` to `fts5_path` and add `defn_fts5` to the copy.
+
+    The shipped database doesn't have `defn_fts5`, since Android's SQLite
+    doesn't have FTS5 and the second index would make the APK and the patches
+    much bigger. This copy is for checking the FTS5 search on the JVM; see
+    `bench/src/test`.
+    """
+    shutil.copyfile(path, fts5_path)
+    db = sqlite3.connect(fts5_path)
+    try:
+        if not fts5_available(db):
+            raise RuntimeError("This SQLite doesn't have FTS5, so it can't build defn_fts5.")
+        build_defn_fts5(db)
+        db.commit()
+    finally:
+        db.close()
+    logging.info("Wrote %s with defn_fts5.", fts5_path)
+
+
 def add_abbrevs_to_db(abbrevs: List[Abbrev], db: Connection) -> Dict[str, int]:
     """Add entries to `defns` and `idx` for abbreviations in `abbrevs`."""
     nid = 1 + max_nid_in_use(db)
@@ -435,27 +538,12 @@ def main() -> None:
         exclude_words = set(mod_e_words).union(set(EXTRA_MOD_ENG_WORDS)).union(VERY_COMMON_WORDS)
 
     # Create a new dictionary file with temporary tables for the terms.
-    # `entry_type` is 'a' for abbreviations and 'e' for dictionary entries.
     try:
         os.remove(args.output)
     except OSError:
         pass
     db = sqlite3.connect(args.output, timeout=3600)
-    c = db.cursor()
-    c.execute("CREATE TEMP TABLE idx (term TEXT NOT NULL, nid INT NOT NULL)")
-    c.execute(
-        """
-        CREATE TEMP TABLE defns (
-            nid INT PRIMARY KEY,
-            title TEXT NOT NULL,
-            html TEXT NOT NULL,
-            conj_html TEXT DEFAULT NULL,
-            mod_e TEXT DEFAULT NULL,
-            entry_type CHAR(1) NOT NULL
-        )
-        """
-    )
-    c.close()
+    create_temp_tables(db)
 
     # Add the definitions, inflected forms, and abbreviations to `idx` and
     # `defns`.
@@ -474,6 +562,9 @@ def main() -> None:
     # Create `defn_content` and `defn_idx`, full-text-indexed versions of the
     # dictionary.
     build_defn_idx(db)
+    with open(args.output + "_terms", "wb") as terms:
+        n = write_term_index(db, terms)
+    logging.info("Wrote %d words to %s_terms.", n, args.output)
 
     # Clear tables other than `defn_content` and `defn_idx`, and clean up the
     # database so we can ship it.
@@ -489,6 +580,8 @@ def main() -> None:
     db.close()
 
     write_rev_file(args.output)
+    if args.fts5_output:
+        write_fts5_copy(args.output, args.fts5_output)
 
 
 if __name__ == "__main__":
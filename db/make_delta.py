@@ -0,0 +1,122 @@
+#!/usr/bin/env python3
+
+"""Write a patch that turns one release's dictionary database into the next.
+
+The app ships the full database, but when the installed copy has the patch's
+base revision, `DictDelta.java` applies the patch in place instead of copying
+the whole thing. The patch lists every page of the new database that differs
+from the old one. It is gzipped, and it has this format (big-endian):
+
+    magic              8 bytes, MAGIC
+    base revision      u16 length, then that many bytes
+    new revision       u16 length, then that many bytes
+    page size          u32
+    new file size      u64
+    new file SHA-256   32 bytes
+    page count         u32
+    pages              for each page: u32 page number, then page size bytes
+
+Applying a patch twice is harmless, so an interrupted update can be retried.
+"""
+
+import argparse
+import gzip
+import hashlib
+import logging
+import struct
+from typing import BinaryIO, List, Tuple
+
+MAGIC = b"BTCDELT1"
+
+
+def sqlite_page_size(db: bytes) -> int:
+    """Return the page size from the header of the SQLite database `db`."""
+    assert db[:16] == b"SQLite format 3\x00", "not a SQLite database"
+    (size,) = struct.unpack(">H", db[16:18])
+    return 65536 if size == 1 else int(size)
+
+
+def changed_pages(old: bytes, new: bytes, page_size: int) -> List[Tuple[int, bytes]]:
+    """Return the pages of `new` that differ from `old`, with their page numbers."""
+    assert len(new) % page_size == 0, "database size is not a multiple of the page size"
+    pages = []
+    for n in range(len(new) // page_size):
+        page = new[n * page_size : (n + 1) * page_size]
+        if old[n * page_size : (n + 1) * page_size] != page:
+            pages.append((n, page))
+    return pages
+
+
+def write_delta(out: BinaryIO, base_rev: bytes, new_rev: bytes, old: bytes, new: bytes) -> int:
+    """Write a patch from `old` to `new` to `out` and return the number of pages in it."""
+    page_size = sqlite_page_size(new)
+    if sqlite_page_size(old) != page_size:
+        raise ValueError("the databases have different page sizes")
+    pages = changed_pages(old, new, page_size)
+    with gzip.GzipFile(fileobj=out, mode="wb", mtime=0) as z:
+        z.write(MAGIC)
+        for rev in (base_rev, new_rev):
+            z.write(struct.pack(">H", len(rev)))
+            z.write(rev)
+        z.write(struct.pack(">IQ", page_size, len(new)))
+        z.write(hashlib.sha256(new).digest())
+        z.write(struct.pack(">I", len(pages)))
+        for n, page in pages:
+            z.write(struct.pack(">I", n))
+            z.write(page)
+    return len(pages)
+
+
+def apply_delta(delta: bytes, db: bytes, installed_rev: bytes) -> bytes:
+    """Return `db` patched with `delta`, as the app would patch it.
+
+    This is here to test `write_delta`; the app's version is in
+    `DictDelta.java`.
+    """
+    data = gzip.decompress(delta)
+    assert data[:8] == MAGIC, "bad magic"
+    pos = 8
+    revs = []
+    for _ in range(2):
+        (n,) = struct.unpack(">H", data[pos : pos + 2])
+        revs.append(data[pos + 2 : pos + 2 + n])
+        pos += 2 + n
+    if revs[0] != installed_rev:
+        raise ValueError("patch is not from revision %r" % (installed_rev,))
+    page_size, size = struct.unpack(">IQ", data[pos : pos + 12])
+    digest = data[pos + 12 : pos + 44]
+    (count,) = struct.unpack(">I", data[pos + 44 : pos + 48])
+    pos += 48
+    out = bytearray(db[:size].ljust(size, b"\x00"))
+    for _ in range(count):
+        (n,) = struct.unpack(">I", data[pos : pos + 4])
+        out[n * page_size : (n + 1) * page_size] = data[pos + 4 : pos + 4 + page_size]
+        pos += 4 + page_size
+    if hashlib.sha256(out).digest() != digest:
+        raise ValueError("checksum mismatch")
+    return bytes(out)
+
+
+def main() -> None:
+    logging.basicConfig(level=logging.INFO)
+    parser = argparse.ArgumentParser()
+    parser.add_argument("--base", required=True, help="previous release's db/dictdb")
+    parser.add_argument("--new", required=True, help="new db/dictdb")
+    parser.add_argument("--output", required=True)
+    args = parser.parse_args()
+    # gen_db.py writes each database's revision next to it.
+    with open(args.base, "rb") as f:
+        old = f.read()
+    with open(args.base + "_rev", "rb") as f:
+        base_rev = f.read()
+    with open(args.new, "rb") as f:
+        new = f.read()
+    with open(args.new + "_rev", "rb") as f:
+        new_rev = f.read()
+    with open(args.output, "wb") as out:
+        n = write_delta(out, base_rev, new_rev, old, new)
+    logging.info("Wrote %d of %d pages to %s.", n, len(new) // sqlite_page_size(new), args.output)
+
+
+if __name__ == "__main__":
+    main()
@@ -214,11 +214,34 @@ def ascify(s: str) -> str:
     s = s.replace("æ", "ae")
     s = s.replace("þ", "th")
     s = s.replace("ð", "th")
+    s = s.replace("ȝ", "g")
     s = re.sub("[^a-z ]", "", s)
     s = re.sub("[^a-z]+", " ", s).strip()
     return s
 
 
+def skeleton(s: str) -> str:
+    """Collapse common Old English spelling variants in `s`, an `ascify` output.
+
+    Entries and their forms are spelled many ways, so the search also matches
+    this "skeleton" of the query against the skeletons of the terms. The steps
+    are, in order: fold "ie" and "y" to "i"; fold "k" to "c"; fold "ea", "e"
+    and "a" to "a" before "h", or before "l" or "r" and another consonant,
+    where the dialects and periods spell the vowel differently ("eald", "ald"
+    and "eld"; "eahta" and "ehta"); and collapse doubled consonants. So
+    "hieran" and "hyran" share "hiran", "kyning" and "cyning" share "cining",
+    and "eald" and "ald" share "ald", but "ear" and "eard" are left alone.
+    (`ascify` folds "ȝ" to "g", so that alternation needs no step here.)
+    `QueryNormalizer.skeleton` in the app must do the same thing; the cases in
+    `testdata/skeleton-cases.jsonl` are checked against both.
+    """
+    s = s.replace("ie", "i").replace("y", "i")
+    s = s.replace("k", "c")
+    s = re.sub(r"(ea|e|a)(?=h|[lr][b-df-hj-np-tv-z])", "a", s)
+    s = re.sub(r"([b-df-hj-np-tv-z])\1+", r"\1", s)
+    return s
+
+
 def acute_to_macron(s: str) -> str:
     s = unicodedata.normalize("NFKD", s)
     s = s.replace("\u0301", "\u0304")
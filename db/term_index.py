@@ -0,0 +1,81 @@
+#!/usr/bin/env python3
+
+"""Write a sorted table of the words in the dictionary's "terms" column.
+
+`TermIndex.java` memory-maps this file so that the app can find the entries
+with a word that starts with a prefix (the `terms:prefix*` part of a search)
+without asking SQLite. The words are the space-separated tokens of the
+normalized forms in `defn_content.terms` (headwords, inflected forms, extra
+forms and abbreviation spellouts), which are what the FTS4 tokenizer indexes.
+The file has this format (big-endian):
+
+    magic              8 bytes, MAGIC
+    word count         u32, n
+    nid count          u32, m
+    word offsets       n + 1 u32s: word i is bytes [off[i], off[i + 1]) of the words
+    nid offsets        n + 1 u32s: word i's nids are [off[i], off[i + 1]) of the nids
+    nids               m u32s, ascending for each word
+    words              the ASCII words, sorted and concatenated
+
+Every section starts at a multiple of four bytes, so the app can read the
+integers in place.
+"""
+
+import struct
+from sqlite3 import Connection
+from typing import BinaryIO, Dict, List, Set
+
+MAGIC = b"BTCTERM1"
+
+
+def words_by_nid(db: Connection) -> Dict[str, Set[int]]:
+    """Return the nids of the entries that have each word in "terms"."""
+    nids = {}  # type: Dict[str, Set[int]]
+    for nid, terms in db.execute("SELECT id, terms FROM defn_content WHERE terms IS NOT NULL"):
+        for form in terms.split("/"):
+            for word in form.split(" "):
+                if word:
+                    nids.setdefault(word, set()).add(nid)
+    return nids
+
+
+def write_term_index(db: Connection, out: BinaryIO) -> int:
+    """Write the index of `db`'s "defn_content" to `out` and return the number of words."""
+    nids = words_by_nid(db)
+    words = sorted(w.encode("ascii") for w in nids)
+    word_offsets = [0]
+    nid_offsets = [0]
+    all_nids = []  # type: List[int]
+    for w in words:
+        word_offsets.append(word_offsets[-1] + len(w))
+        all_nids.extend(sorted(nids[w.decode("ascii")]))
+        nid_offsets.append(len(all_nids))
+    out.write(MAGIC)
+    out.write(struct.pack(">II", len(words), len(all_nids)))
+    out.write(struct.pack(">%dI" % len(word_offsets), *word_offsets))
+    out.write(struct.pack(">%dI" % len(nid_offsets), *nid_offsets))
+    out.write(struct.pack(">%dI" % len(all_nids), *all_nids))
+    out.write(b"".join(words))
+    return len(words)
+
+
+def lookup_prefix(data: bytes, prefix: str) -> List[int]:
+    """Return the nids with a word in `data`, an index, that starts with `prefix`.
+
+    This is here to test `write_term_index`; the app's version is in
+    `TermIndex.java`.
+    """
+    assert data[:8] == MAGIC, "bad magic"
+    n, m = struct.unpack(">II", data[8:16])
+    word_offsets = struct.unpack(">%dI" % (n + 1), data[16 : 16 + 4 * (n + 1)])
+    pos = 16 + 4 * (n + 1)
+    nid_offsets = struct.unpack(">%dI" % (n + 1), data[pos : pos + 4 * (n + 1)])
+    pos += 4 * (n + 1)
+    nids = struct.unpack(">%dI" % m, data[pos : pos + 4 * m])
+    words = data[pos + 4 * m :]
+    p = prefix.encode("ascii")
+    found = set()  # type: Set[int]
+    for i in range(n):
+        if words[word_offsets[i] : word_offsets[i + 1]].startswith(p):
+            found.update(nids[nid_offsets[i] : nid_offsets[i + 1]])
+    return sorted(found)
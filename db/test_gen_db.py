@@ -1,5 +1,10 @@
 #!/usr/bin/env python3
 
+import sqlite3
+from typing import List
+
+import pytest
+
 import gen_db
 
 
@@ -41,3 +46,37 @@ def test_linkify_with_dashes() -> None:
     h = gen_db.linkify("a a-a a- -a", term_nid, rex, current_nid=0, skip=0)
     eh = '<a href="https://btc.invalid/8">a</a> ' '<a href="https://btc.invalid/9">a-a</a> a- -a'
     assert eh == h
+
+
+def test_build_defn_fts5(small_db: sqlite3.Connection) -> None:
+    db = small_db
+    if not gen_db.fts5_available(db):
+        pytest.skip("no FTS5")
+    gen_db.build_defn_fts5(db)
+
+    def match(q: str) -> List[int]:
+        sql = "SELECT rowid FROM defn_fts5 WHERE defn_fts5 MATCH ? ORDER BY rowid"
+        return [r[0] for r in db.execute(sql, (q,))]
+
+    # The HTML is indexed without tags or diacritics, as in `defn_idx`.
+    assert match("html : thaet") == [4]
+    assert match("html : b") == []
+    assert match("terms : hea*") == [1]
+    assert match('"to help"') == [1]
+
+
+def test_skeletons() -> None:
+    assert gen_db.skeletons(None) is None
+    assert gen_db.skeletons("/hyran/hieran/heran/") == "/hiran/heran/"
+
+
+def test_build_defn_idx_skeletons(small_db: sqlite3.Connection) -> None:
+    db = small_db
+
+    def match(q: str) -> List[int]:
+        sql = "SELECT rowid FROM defn_idx WHERE skel MATCH ? ORDER BY rowid"
+        return [r[0] for r in db.execute(sql, (q,))]
+
+    assert match("hiran") == [5]
+    assert match("cininges") == [6]
+    assert match("hyran") == []
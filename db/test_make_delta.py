@@ -0,0 +1,67 @@
+#!/usr/bin/env python3
+
+import io
+import os
+import sqlite3
+from pathlib import Path
+from typing import List
+
+import pytest
+
+import make_delta
+
+TESTDATA = os.path.join(os.path.dirname(__file__), "testdata")
+
+
+def make_db(path: Path, words: List[str]) -> bytes:
+    db = sqlite3.connect(path)
+    db.execute("PRAGMA page_size = 512")
+    db.execute("CREATE TABLE t (word TEXT)")
+    db.executemany("INSERT INTO t VALUES (?)", [(w * 20,) for w in words])
+    db.commit()
+    db.execute("VACUUM")
+    db.close()
+    with open(path, "rb") as f:
+        return f.read()
+
+
+def delta(base_rev: bytes, new_rev: bytes, old: bytes, new: bytes) -> bytes:
+    out = io.BytesIO()
+    make_delta.write_delta(out, base_rev, new_rev, old, new)
+    return out.getvalue()
+
+
+def test_round_trip(tmp_path: Path) -> None:
+    words = ["w%d" % i for i in range(200)]
+    old = make_db(tmp_path / "old", words)
+    new = make_db(tmp_path / "new", words[:150] + ["changed"] + words[151:] + ["x", "y"])
+    d = delta(b"r1", b"r2", old, new)
+    assert make_delta.apply_delta(d, old, b"r1") == new
+    # Applying it again does nothing.
+    assert make_delta.apply_delta(d, new, b"r1") == new
+    assert len(make_delta.changed_pages(old, new, 512)) < len(new) // 512
+
+
+def test_shrink(tmp_path: Path) -> None:
+    words = ["w%d" % i for i in range(200)]
+    old = make_db(tmp_path / "old", words)
+    new = make_db(tmp_path / "new", words[:20])
+    assert make_delta.apply_delta(delta(b"r1", b"r2", old, new), old, b"r1") == new
+
+
+def test_wrong_base(tmp_path: Path) -> None:
+    old = make_db(tmp_path / "old", ["a"])
+    new = make_db(tmp_path / "new", ["b"])
+    with pytest.raises(ValueError):
+        make_delta.apply_delta(delta(b"r1", b"r2", old, new), old, b"r0")
+
+
+def test_shared_fixture() -> None:
+    # DictDeltaTest in the app applies the same patch.
+    with open(os.path.join(TESTDATA, "delta-old.db"), "rb") as f:
+        old = f.read()
+    with open(os.path.join(TESTDATA, "delta-new.db"), "rb") as f:
+        new = f.read()
+    with open(os.path.join(TESTDATA, "delta-old-new.bin"), "rb") as f:
+        d = f.read()
+    assert make_delta.apply_delta(d, old, b"OLD") == new
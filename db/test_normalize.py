@@ -1,5 +1,8 @@
 #!/usr/bin/env python3
 
+import json
+import os
+
 import normalize
 
 
@@ -13,6 +16,24 @@ def test_ascify() -> None:
     assert "guth cyning" == ascified
 
 
+def test_ascify_shared_cases() -> None:
+    # The app's DictTest checks the same cases against Dict.normalizeQuery.
+    path = os.path.join(os.path.dirname(__file__), "testdata", "ascify-cases.jsonl")
+    with open(path, "rt", encoding="UTF-8") as f:
+        for line in f:
+            source, expected = json.loads(line)
+            assert expected == normalize.ascify(source), source
+
+
+def test_skeleton_shared_cases() -> None:
+    # The app's DictTest checks the same cases against QueryNormalizer.skeleton.
+    path = os.path.join(os.path.dirname(__file__), "testdata", "skeleton-cases.jsonl")
+    with open(path, "rt", encoding="UTF-8") as f:
+        for line in f:
+            source, expected = json.loads(line)
+            assert expected == normalize.skeleton(source), source
+
+
 def test_acute_to_macron() -> None:
     assert "foō BǢR" == normalize.acute_to_macron("foó BǼR")
 
@@ -0,0 +1,21 @@
+#!/usr/bin/env python3
+
+import io
+import sqlite3
+from typing import List
+
+import term_index
+
+
+def test_matches_fts(small_db: sqlite3.Connection) -> None:
+    db = small_db
+    out = io.BytesIO()
+    assert term_index.write_term_index(db, out) == 11
+    data = out.getvalue()
+
+    def fts(prefix: str) -> List[int]:
+        sql = "SELECT rowid FROM defn_idx WHERE terms MATCH ? ORDER BY rowid"
+        return [r[0] for r in db.execute(sql, (prefix + "*",))]
+
+    for prefix in ["h", "he", "hel", "help", "helpan", "helpans", "hea", "a", "s", "sax", "th", "hy", "cyning", "x"]:
+        assert term_index.lookup_prefix(data, prefix) == fts(prefix), prefix